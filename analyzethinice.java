@@ -1,6 +1,9 @@
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.text.MessageFormat;
 import java.util.Arrays;
 
@@ -19,8 +22,9 @@ public class Main {
     public static void main(String[] args) {
 
         // Part A: Find the fracture points
-        int[][][] iceSheetsArray = HelperClass.readFileToArray(); // Read the data from the file and store it in a 3D array
-        int[][] fracturePoints = HelperClass.findFracturePoints(); // Find the fracture points and store them in a 2D array
+        IceSheetGrid[] iceSheetsArray = HelperClass.readFileToArray(); // Read the data from the file and store one grid per ice sheet
+        SheetAnalysis[] analyses = HelperClass.analyzeSheets(iceSheetsArray); // Find fracture and crack points in one sweep per sheet
+        int[][] fracturePoints = HelperClass.findFracturePoints(analyses); // Collect the fracture points in a 2D array
         int[] maxFracturePoints = HelperClass.findMaxFracturePointsSheet(fracturePoints);  // Find the ice sheet with the most fracture points
 
         // Get the number of rows and columns in the fracturePoints array
@@ -36,8 +40,8 @@ public class Main {
         System.out.println("Fracture points:\n\n" + points);
         System.out.println("\n\033[1mPart B: \n");
 
-        // Part B: Find the crack points and print the results
-        HelperClass.findCrackPoints(iceSheetsArray, fracturePoints);
+        // Part B: Print the crack points found by the sweep
+        HelperClass.findCrackPoints(analyses);
     }
 }
 
@@ -53,99 +57,173 @@ public class Main {
 class HelperClass {
 
     /**
-     * Read the data from the file and store it in a 3D array
-     * @return 3D array containing the data from the file
+     * Read the data from data/ICESHEETS.TXT and store it in one grid per ice sheet
+     * @return array of grids containing the data from the file
      */
-    public static int[][][] readFileToArray() {
-        String filePath = "data/ICESHEETS.TXT";  // Path to the file
-
-        // Define 3D array to store data
-        int[][][] iceSheets = null;
+    public static IceSheetGrid[] readFileToArray() {
+        return readFileToArray(Path.of("data/ICESHEETS.TXT"));
+    }
 
-        // Read the first line of the file to get the dimensions of the array
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
+    /**
+     * Read the data from the file and store it in one grid per ice sheet
+     * The file is the number of ice sheets, then for each sheet its rows and columns followed by its values,
+     * all separated by whitespace. The values are decoded straight from the file's bytes with IceSheetReader
+     * into the flat row-major storage of each grid. They are decoded as shorts, so a sheet that fits in shorts
+     * never needs more than 2 bytes a cell; the first value that does not fit widens the sheet to ints, and
+     * only then are both arrays live at once, for 6 bytes a cell while the shorts are copied across.
+     * @param filePath path to the file
+     * @return array of grids containing the data from the file
+     */
+    public static IceSheetGrid[] readFileToArray(Path filePath) {
+        // Define the array of grids to store data
+        IceSheetGrid[] iceSheets = null;
 
-            // Read the first line of the file to get the dimensions of the array
-            String lengthLine = br.readLine();
-            int size = Integer.parseInt(lengthLine);
+        try (IceSheetReader reader = new IceSheetReader(filePath)) {
+            int size = reader.nextInt();  // The number of ice sheets
 
             // Initialize the array
-            iceSheets = new int[size][][];
+            iceSheets = new IceSheetGrid[size];
 
             // Read the rest of the file
             for (int i = 0; i < size; i++) {
-                String[] dimensions = br.readLine().split(" ");  // Read the first line of the array
-                // Get the dimensions of the array
-                int rows = Integer.parseInt(dimensions[0]);
-                int cols = Integer.parseInt(dimensions[1]);
-
-                // Initialize the 2D array
-                iceSheets[i] = new int[rows][cols];
-
-                // Read the rest of the array
-                for (int j = 0; j < rows; j++) {
-                    String[] row = br.readLine().split(" "); // Read the row
-                    for (int k = 0; k < cols; k++) {      // Loop through the columns
-                        iceSheets[i][j][k] = Integer.parseInt(row[k]);
+                // Get the dimensions of the sheet
+                int rows = reader.nextInt();
+                int cols = reader.nextInt();
+                if (rows < 0 || cols < 0) {
+                    throw new IOException("Ice sheet " + (i + 1) + " has negative dimensions: " + rows + " x " + cols);
+                }
+                int count;
+                try {
+                    count = Math.multiplyExact(rows, cols);
+                } catch (ArithmeticException e) {
+                    throw new IOException("Ice sheet " + (i + 1) + " is too large: " + rows + " x " + cols);
+                }
+
+                // Read the values in row-major order, as shorts until one does not fit
+                short[] shorts = new short[count];
+                int[] ints = null;
+                for (int j = 0; j < count; j++) {
+                    int value = reader.nextInt();
+                    if (ints != null) {
+                        ints[j] = value;
+                    } else if (value == (short) value) {
+                        shorts[j] = (short) value;
+                    } else {  // Widen the values read so far and keep reading into ints
+                        ints = new int[count];
+                        for (int k = 0; k < j; k++) {
+                            ints[k] = shorts[k];
+                        }
+                        ints[j] = value;
+                        shorts = null;
                     }
                 }
+                iceSheets[i] = (ints == null) ? IceSheetGrid.of(rows, cols, shorts) : IceSheetGrid.of(rows, cols, ints);
             }
-        } catch (IOException e) {  // Catch any exceptions if the file is not found
+        } catch (IOException e) {  // Catch any exceptions if the file is not found or malformed
             System.out.println("Error reading file: " + e.getMessage());
         }
 
-        return iceSheets; // Return the 3D array
+        return iceSheets; // Return the array of grids
     }
 
+    static final int FRACTURE_THRESHOLD = 200;  // Fracture points are at least this high
+    static final int FRACTURE_DIVISOR = 50;     // and evenly divisible by this
+    static final int CRACK_DIVISOR = 10;        // Crack points next to a fracture point are evenly divisible by this
+
     /**
-     * Find the fracture points and store them in a 2D array
-     * @return 2D array containing the fracture points
+     * Check if a value is a fracture point - at or above the threshold and evenly divisible by 50
+     * @param cell value to be checked
+     * @return true if the value is a fracture point
      */
-    public static int[][] findFracturePoints() {
-        int[][][] iceSheets = readFileToArray();   // Read the data from the file and store it in a 3D array
-        int[][] fracturePoints = new int[iceSheets.length][]; // Initialize the 2D array to store the fracture points
-
-        // Define the threshold and the number to divide by
-        int htThreshold = 200;
-        int divisibleBy = 50;
+    public static boolean isFractureValue(int cell) {
+        return cell >= FRACTURE_THRESHOLD && cell % FRACTURE_DIVISOR == 0;
+    }
 
-        // Loop through the ice sheets
+    /**
+     * Analyze every ice sheet with analyzeSheet
+     * @param iceSheets grids containing the data from the file
+     * @return the analysis of each ice sheet
+     */
+    public static SheetAnalysis[] analyzeSheets(IceSheetGrid[] iceSheets) {
+        SheetAnalysis[] analyses = new SheetAnalysis[iceSheets.length];
         for (int i = 0; i < iceSheets.length; i++) {
-            int[][] iceSheet = iceSheets[i];  // Get the current ice sheet
-
-            // Get the number of rows and columns in the current ice sheet
-            int rows = iceSheet.length;
-            int cols = iceSheet[0].length;
-
-            // Keep track of the fracture points in the current ice sheet
-            int[] currentFracturePoints = new int[rows * cols];
-            int count = 0; // Keep track of the number of fracture points
+            analyses[i] = analyzeSheet(iceSheets[i]);
+        }
+        return analyses;
+    }
 
-            for (int j = 0; j < rows; j++) { // Loop through the rows
-                int[] row = iceSheet[j];
-                for (int k = 0; k < cols; k++) {  // Loop through the columns
-                    int cell = row[k];
+    /**
+     * Find the fracture points and the crack points of one ice sheet in a single sweep.
+     * The sweep keeps a window of three rows - the one above, the current one and the one below - and
+     * slides it down one row at a time, so each value is read from the grid once and the neighbours of a
+     * cell are read from the window. For every fracture point it records the crack points next to it, left,
+     * right, top and bottom, and counts the fracture point if it leads to a crack and if one of its crack
+     * points is itself a fracture point.
+     * A crack point is a neighbour in the same grid, so it is one of this sheet's fracture points exactly when
+     * isFractureValue holds for it. The sweep checks that directly, which gives the same answer as a lookup in
+     * a FractureIndex of the sheet without first collecting every fracture point.
+     * @param grid the ice sheet
+     * @return the fracture points, crack points and counts of the sheet
+     */
+    public static SheetAnalysis analyzeSheet(IceSheetGrid grid) {
+        int rows = grid.rows();
+        int cols = grid.cols();
+        SheetAnalysis analysis = new SheetAnalysis();
+
+        // Reused for the crack points of every fracture point - a cell has at most four neighbours
+        int[] crackValues = new int[4];
+        long[] crackLocations = new long[4];
+
+        // The three rows of the window
+        int[] above = new int[cols];
+        int[] current = new int[cols];
+        int[] below = new int[cols];
+        if (rows > 0) {
+            grid.copyRow(0, current);
+        }
+        if (rows > 1) {
+            grid.copyRow(1, below);
+        }
 
-                    // Check if the cell is above the threshold and is evenly divisible by 50
-                    if (cell >= htThreshold && cell % divisibleBy == 0) {
-                        currentFracturePoints[count++] = cell;
-                    }
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                int cell = current[col];
+                if (!isFractureValue(cell)) {
+                    continue;
                 }
-            }
+                analysis.addFracturePoint(cell);
 
-            // Truncate zeros from the currentFracturePoints array
-            for (int k = 0; k < currentFracturePoints.length; k++) {
-                if (currentFracturePoints[k] == 0) {
-                    currentFracturePoints = Arrays.copyOfRange(currentFracturePoints, 0, k);
-                    break;  // Break out of the loop once the array is without zeros
+                int cracks = checkAdjacentValues(above, current, below, rows, row, col, crackValues, crackLocations);
+                if (cracks > 0) {
+                    analysis.addCrackPoints(crackValues, crackLocations, cracks);
+                    analysis.pointsLeadingToCrack++;
+                }
+                if (isFracturePointCrackPoint(crackValues, cracks)) {
+                    analysis.fracturePointsCrackPoints++;
                 }
             }
 
-            // Initialize the second dimension of fracturePoints
-            fracturePoints[i] = new int[currentFracturePoints.length];
+            // Slide the window down one row, reusing the buffer of the row that leaves it
+            int[] spare = above;
+            above = current;
+            current = below;
+            below = spare;
+            if (row + 2 < rows) {
+                grid.copyRow(row + 2, below);
+            }
+        }
+        return analysis;
+    }
 
-            // Copy 1D array to 2D array using System.arraycopy
-            System.arraycopy(currentFracturePoints, 0, fracturePoints[i], 0, currentFracturePoints.length);
+    /**
+     * Collect the fracture points of every ice sheet in a 2D array
+     * @param analyses the analysis of each ice sheet
+     * @return 2D array containing the fracture points
+     */
+    public static int[][] findFracturePoints(SheetAnalysis[] analyses) {
+        int[][] fracturePoints = new int[analyses.length][];
+        for (int i = 0; i < analyses.length; i++) {
+            fracturePoints[i] = analyses[i].fracturePoints();
         }
         return fracturePoints; // Return the array of fracture points
     }
@@ -166,16 +244,16 @@ class HelperClass {
     }
 
     /**
-     * Format the 3D array
-     * @param inputArray 3D array to be formatted
-     * @return formatted 3D array
+     * Format the ice sheets, one line per row
+     * @param inputArray grids to be formatted
+     * @return formatted ice sheets
      */
-    public static String format3DArray(int[][][] inputArray) {
+    public static String format3DArray(IceSheetGrid[] inputArray) {
         StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < inputArray.length; i++) {  // Handle 3D inputArray
+        for (int i = 0; i < inputArray.length; i++) {  // Handle each ice sheet
             sb.append("Ice Sheet ").append(i + 1).append(":\n");
-            for (int j = 0; j < inputArray[i].length; j++) {
-                sb.append(Arrays.toString(inputArray[i][j])).append("\n");
+            for (int j = 0; j < inputArray[i].rows(); j++) {
+                sb.append(Arrays.toString(inputArray[i].row(j))).append("\n");
             }
             sb.append("\n");
         }
@@ -200,57 +278,24 @@ class HelperClass {
     }
 
     /**
-     * Find the crack points and print the results
-     * @param iceSheets 3D array containing the data from the file
-     * @param fracturePoints 2D array containing the fracture points
+     * Print the crack points of every ice sheet and the counts of fracture points that lead to them
+     * @param analyses the analysis of each ice sheet
      */
-    public static void findCrackPoints(int[][][] iceSheets, int[][] fracturePoints) {
-
-        // Initialize variables to store crack points, locations of crack points, and total number of fracture points that lead to a crack
-        int[] currentCrackPointsArray = new int[fracturePoints.length];
-        String[] currentCrackPointLocations = new String[fracturePoints.length];
-        int totalPointsLeadingToCrack = 0;
-        int totalFracturePointsCrackPoints = 0;
-
-        for (int i = 0; i < iceSheets.length; i++) { // Loop through the ice sheets
-            totalPointsLeadingToCrack = 0;      // Reset totalPointsLeadingToCrack for each ice sheet
-            totalFracturePointsCrackPoints = 0; // Reset totalFracturePointsCrackPoints for each ice sheet
+    public static void findCrackPoints(SheetAnalysis[] analyses) {
+        for (int i = 0; i < analyses.length; i++) { // Loop through the ice sheets
+            SheetAnalysis analysis = analyses[i];
             System.out.println(MessageFormat.format("\t\t\t\t    \033[1m\033[3mIce Sheet {0}:\033[0m", i + 1));
-            for (int j = 0; j < iceSheets[i].length; j++) {        // Loop through the rows
-                for (int k = 0; k < iceSheets[i][j].length; k++) { // Loop through the columns
-                    int cell = iceSheets[i][j][k];
-                    if (isFracturePoint(fracturePoints, cell)) {   // Make sure it is a fracture point
-                        if (iceSheets[i][j][k] != -1) {            // Check that ice sheet value is present
-                            Object[] crackPoints = checkAdjacentValues(iceSheets, i, j, k, fracturePoints); // Check crack points for one cell in the ice sheet
-
-                            // Store crack points and locations
-                            currentCrackPointsArray = (int[]) crackPoints[0];
-                            currentCrackPointLocations = (String[]) crackPoints[1];
-
-                            // Calculate the total number of fracture points that lead to a crack
-                            if (currentCrackPointsArray.length > 0) {
-                                totalPointsLeadingToCrack++;
-                            }
-
-                            // Check if the fracture point is also a crack point
-                            if (isFracturePointCrackPoint(fracturePoints, currentCrackPointsArray)) {
-                                totalFracturePointsCrackPoints++;
-                            }
-
-                            // Print crack points information if crack points exist
-                            if (currentCrackPointsArray.length > 0) {
-                                // Iterate through crack points and print information
-                                for (int x = 0; x < currentCrackPointsArray.length; x++) {
-                                    System.out.println(MessageFormat.format("Crack point: {0}", (Object) currentCrackPointsArray[x]));
-                                    System.out.println(MessageFormat.format("Crack point location at row x column: {0}", (Object) currentCrackPointLocations[x]));
-                                }
-                            }
-                        }
-                    }
-                }
+
+            // Print crack points information in the order the sweep found them
+            for (int x = 0; x < analysis.crackCount(); x++) {
+                System.out.println(MessageFormat.format("Crack point: {0}", (Object) analysis.crackValue(x)));
+                System.out.println(MessageFormat.format("Crack point location at row x column: {0}",
+                        (Object) (analysis.crackRow(x) + " x " + analysis.crackCol(x))));
             }
 
             // Display per ice sheet crack information if crack points exist
+            int totalPointsLeadingToCrack = analysis.pointsLeadingToCrack;
+            int totalFracturePointsCrackPoints = analysis.fracturePointsCrackPoints;
             if (totalPointsLeadingToCrack > 0) {
                 System.out.println(MessageFormat.format("Total number of fracture points that lead to a crack: {0}", totalPointsLeadingToCrack));
                 System.out.println(MessageFormat.format("Total number of fracture points that are also crack points: {0}", totalFracturePointsCrackPoints));
@@ -264,18 +309,30 @@ class HelperClass {
 
     /**
      * Check if the fracture point is also a crack point
-     * @param fracturePointts 2D array containing the fracture points
+     * @param fractureIndex index of the fracture points of the current ice sheet
      * @param crackPoints array containing the crack points
      * @return true if the fracture point is also a crack point, false otherwise
      */
-    public static boolean isFracturePointCrackPoint(int[][] fracturePointts, int[] crackPoints) {
-        for (int i = 0; i < fracturePointts.length; i++) {         // Loop through the rows
-            for (int j = 0; j < fracturePointts[i].length; j++) {  // Loop through the columns
-                for (int k = 0; k < crackPoints.length; k++) {     // Loop through the crack points
-                    if (fracturePointts[i][j] == crackPoints[k]) { // Check if the fracture point is also a crack point
-                        return true;
-                    }
-                }
+    public static boolean isFracturePointCrackPoint(FractureIndex fractureIndex, int[] crackPoints) {
+        for (int k = 0; k < crackPoints.length; k++) {     // Loop through the crack points
+            if (fractureIndex.contains(crackPoints[k])) {  // Check if the crack point is also a fracture point
+                return true;
+            }
+        }
+        return false; // Return false if the fracture point is not a crack point
+    }
+
+    /**
+     * Check if the fracture point is also a crack point, for crack points that are cells of the same ice
+     * sheet - such a crack point is a fracture point exactly when isFractureValue holds for it
+     * @param crackValues the crack points next to the fracture point
+     * @param count number of crack points in crackValues
+     * @return true if one of the crack points is also a fracture point, false otherwise
+     */
+    public static boolean isFracturePointCrackPoint(int[] crackValues, int count) {
+        for (int k = 0; k < count; k++) {         // Loop through the crack points
+            if (isFractureValue(crackValues[k])) {  // The crack point is a cell of the same sheet
+                return true;
             }
         }
         return false; // Return false if the fracture point is not a crack point
@@ -283,99 +340,454 @@ class HelperClass {
 
     /**
      * Check if the cell is a fracture point
-     * @param fracturePoints 2D array containing the fracture points
+     * @param fractureIndex index of the fracture points of the current ice sheet
      * @param cell cell to be checked
      * @return true if the cell is a fracture point, false otherwise
      */
-    public static boolean isFracturePoint(int[][] fracturePoints, int cell) {
-        for (int i = 0; i < fracturePoints.length; i++) {        // Loop through the rows
-            for (int j = 0; j < fracturePoints[i].length; j++) { // Loop through the columns
-                if (cell == fracturePoints[i][j]) { // True if the cell is a fracture point
-                    return true;
-                }
-            }
-        }
-        return false;
+    public static boolean isFracturePoint(FractureIndex fractureIndex, int cell) {
+        return fractureIndex.contains(cell);
     }
 
     /**
-     * Check the adjacent values of a cell
-     * @param iceSheets 3D array containing the data from the file
-     * @param sheet current ice sheet
+     * Check the adjacent values of a cell - left, right, top and bottom - and write the ones that are crack
+     * points into the caller's buffers, so checking a cell allocates nothing. A location is packed as
+     * row << 32 | column and is only turned into text when it is printed.
+     * @param above the row above the cell
+     * @param current the row of the cell
+     * @param below the row below the cell
+     * @param rows number of rows in the ice sheet
      * @param row current row
      * @param col current column
-     * @param fracturePoints 2D array containing the fracture points
-     * @return array containing the crack points and the locations of the crack points
+     * @param crackValues buffer of at least 4 values for the crack points
+     * @param crackLocations buffer of at least 4 values for the locations of the crack points
+     * @return number of crack points written to the buffers
      */
-    public static Object[] checkAdjacentValues(
-            int[][][] iceSheets,
-            int sheet,
+    public static int checkAdjacentValues(
+            int[] above,
+            int[] current,
+            int[] below,
+            int rows,
             int row,
             int col,
-            int[][] fracturePoints) {
-
-        // Initialize adjacent values
-        int leftAdjacent = 0;
-        int rightAdjacent = 0;
-        int topAdjacent = 0;
-        int bottomAdjacent = 0;
-
-        // Create arrays to store crack points, crack point locations, and fraction of crack points
-        int[] crackPoints = new int[fracturePoints[sheet].length];
-        String[] crackPointLocations = new String[fracturePoints[sheet].length];
+            int[] crackValues,
+            long[] crackLocations) {
 
-        // Initialize count
         int count = 0;
 
         if (col > 0) { // Check if the left adjacent value is not at the left edge of the array
-            int shiftedColumn = col - 1;
-            leftAdjacent = iceSheets[sheet][row][shiftedColumn];  // Get the left adjacent value
+            count = addIfCrackPoint(current[col - 1], row, col - 1, crackValues, crackLocations, count);
+        }
+        if (col < current.length - 1) {  // Check if the right adjacent value is not at the right edge of the array
+            count = addIfCrackPoint(current[col + 1], row, col + 1, crackValues, crackLocations, count);
+        }
+        if (row > 0) {  // Check if the top adjacent value is not at the top edge of the array
+            count = addIfCrackPoint(above[col], row - 1, col, crackValues, crackLocations, count);
+        }
+        if (row < rows - 1) {  // Check if the bottom adjacent value is not at the bottom edge of the array
+            count = addIfCrackPoint(below[col], row + 1, col, crackValues, crackLocations, count);
+        }
+        return count;
+    }
 
-            if (leftAdjacent % 10 == 0) {          // Check if the left adjacent value is a crack point
-                crackPoints[count] = leftAdjacent; // Add crack point to crackPoints array
-                crackPointLocations[count] = row + " x " + shiftedColumn;
-                count++; // Increment count
-            }
+    /**
+     * Write an adjacent value to the buffers if it is a crack point
+     * @return the new number of crack points in the buffers
+     */
+    private static int addIfCrackPoint(int value, int row, int col, int[] crackValues, long[] crackLocations, int count) {
+        if (value % CRACK_DIVISOR == 0) {  // Check if the adjacent value is a crack point
+            crackValues[count] = value;
+            crackLocations[count] = SheetAnalysis.location(row, col);
+            count++;
+        }
+        return count;
+    }
+}
+
+/**
+ * What HelperClass.analyzeSheet finds in one ice sheet: its fracture points in row-major order, the crack
+ * points next to them in the order they were found with their locations, and the per-sheet counts.
+ * The points are kept in primitive arrays that grow by doubling.
+ */
+class SheetAnalysis {
+
+    private int[] fracturePoints = new int[16];
+    private int fractureCount;
+    private int[] crackValues = new int[16];
+    private long[] crackLocations = new long[16];  // Row in the high 32 bits, column in the low 32 bits
+    private int crackCount;
+
+    int pointsLeadingToCrack;       // Fracture points with at least one crack point next to them
+    int fracturePointsCrackPoints;  // Fracture points with a crack point next to them that is also a fracture point
+
+    void addFracturePoint(int value) {
+        if (fractureCount == fracturePoints.length) {
+            fracturePoints = Arrays.copyOf(fracturePoints, fractureCount * 2);
+        }
+        fracturePoints[fractureCount++] = value;
+    }
+
+    void addCrackPoints(int[] values, long[] locations, int count) {
+        if (crackCount + count > crackValues.length) {
+            crackValues = Arrays.copyOf(crackValues, crackValues.length * 2);
+            crackLocations = Arrays.copyOf(crackLocations, crackLocations.length * 2);
         }
+        System.arraycopy(values, 0, crackValues, crackCount, count);
+        System.arraycopy(locations, 0, crackLocations, crackCount, count);
+        crackCount += count;
+    }
 
-        if (col < iceSheets[sheet][row].length - 1) {  // Check if the right adjacent value is not at the right edge of the array
-            int shiftedColumn = col + 1;
-            rightAdjacent = iceSheets[sheet][row][shiftedColumn];
+    /**
+     * Pack a location as row << 32 | column
+     */
+    static long location(int row, int col) {
+        return (long) row << 32 | col;
+    }
 
-            if (rightAdjacent % 10 == 0) {  // Check if the right adjacent value is a crack point
-                crackPoints[count] = rightAdjacent;
-                crackPointLocations[count] = row + " x " + shiftedColumn;
-                count++;
+    /**
+     * @return a new array with the fracture points in row-major order
+     */
+    int[] fracturePoints() {
+        return Arrays.copyOf(fracturePoints, fractureCount);
+    }
+
+    int crackCount() {
+        return crackCount;
+    }
+
+    int crackValue(int i) {
+        return crackValues[i];
+    }
+
+    int crackRow(int i) {
+        return (int) (crackLocations[i] >>> 32);
+    }
+
+    int crackCol(int i) {
+        return (int) crackLocations[i];
+    }
+}
+
+/**
+ * The distinct fracture point values of one ice sheet in an open-addressing hash set of ints, so checking
+ * whether a value is a fracture point takes one or two probes instead of a scan of every fracture point.
+ * The table is at most half full and a probe that hits an empty slot moves on to the next slot, so lookups
+ * stay short and walk consecutive memory.
+ */
+class FractureIndex {
+
+    private static final int EMPTY = Integer.MIN_VALUE;  // Marks a free slot - stored separately if it is a value
+
+    private final int[] table;
+    private final int shift;       // Keeps the top bits of the hash, as many as the table needs
+    private boolean containsEmpty; // Whether EMPTY itself is one of the values
+    private int size;
+
+    private FractureIndex(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(expected, 1) * 2 - 1) * 2;  // A power of two over 2 * expected
+        table = new int[capacity];
+        Arrays.fill(table, EMPTY);
+        shift = 32 - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    /**
+     * Build the index of one ice sheet's fracture points
+     * @param fracturePoints the fracture points of the sheet, duplicates allowed
+     * @return the index
+     */
+    static FractureIndex of(int[] fracturePoints) {
+        FractureIndex index = new FractureIndex(fracturePoints.length);
+        for (int value : fracturePoints) {
+            index.add(value);
+        }
+        return index;
+    }
+
+    /**
+     * The slot a value's probe sequence starts at - Fibonacci hashing, which spreads the multiples of 50
+     * that fracture points are across the whole table
+     */
+    private int slot(int value) {
+        return (value * 0x9E3779B9) >>> shift;  // The table has at least two slots, so shift is below 32
+    }
+
+    private void add(int value) {
+        if (value == EMPTY) {
+            size += containsEmpty ? 0 : 1;
+            containsEmpty = true;
+            return;
+        }
+        int mask = table.length - 1;
+        for (int i = slot(value); ; i = (i + 1) & mask) {
+            if (table[i] == value) {
+                return;
+            }
+            if (table[i] == EMPTY) {
+                table[i] = value;
+                size++;
+                return;
             }
         }
+    }
 
-        if (row > 0) {  // Check if the top adjacent value is not at the top edge of the array
-            int shiftedRow = row - 1;
-            topAdjacent = iceSheets[sheet][shiftedRow][col];
+    /**
+     * Check if a value is one of the fracture points
+     * @param value the value to look up
+     * @return true if the value is a fracture point of the sheet
+     */
+    boolean contains(int value) {
+        if (value == EMPTY) {
+            return containsEmpty;
+        }
+        int mask = table.length - 1;
+        for (int i = slot(value); ; i = (i + 1) & mask) {
+            int entry = table[i];
+            if (entry == value) {
+                return true;
+            }
+            if (entry == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return number of distinct fracture point values
+     */
+    int size() {
+        return size;
+    }
+}
+
+/**
+ * One ice sheet stored as a single row-major array: the value at (row, col) is at index row * cols + col,
+ * so a whole sheet is one object and its rows lie next to each other in memory. Moving one column is a
+ * step of 1 and moving one row is a step of cols. When every value fits in a short, the sheet is stored
+ * as a short[] instead, which halves its memory and the bandwidth needed to scan it.
+ */
+class IceSheetGrid {
+
+    private final int rows;
+    private final int cols;
+    private final int[] ints;      // The values, or null when they are stored as shorts
+    private final short[] shorts;  // The values, or null when they are stored as ints
+
+    private IceSheetGrid(int rows, int cols, int[] ints, short[] shorts) {
+        this.rows = rows;
+        this.cols = cols;
+        this.ints = ints;
+        this.shorts = shorts;
+    }
+
+    /**
+     * Make a grid from values in row-major order that are already shorts
+     * @param rows number of rows
+     * @param cols number of columns
+     * @param cells rows * cols values in row-major order - the grid keeps the array
+     * @return the grid
+     */
+    static IceSheetGrid of(int rows, int cols, short[] cells) {
+        if (cells.length != rows * cols) {
+            throw new IllegalArgumentException(cells.length + " values for a " + rows + " x " + cols + " sheet");
+        }
+        return new IceSheetGrid(rows, cols, null, cells);
+    }
+
+    /**
+     * Make a grid from values in row-major order, narrowed to shorts when they all fit
+     * @param rows number of rows
+     * @param cols number of columns
+     * @param cells rows * cols values in row-major order - the grid keeps the array when it does not narrow it
+     * @return the grid
+     */
+    static IceSheetGrid of(int rows, int cols, int[] cells) {
+        if (cells.length != rows * cols) {
+            throw new IllegalArgumentException(cells.length + " values for a " + rows + " x " + cols + " sheet");
+        }
+        int min = 0;
+        int max = 0;
+        for (int cell : cells) {
+            min = Math.min(min, cell);
+            max = Math.max(max, cell);
+        }
+        if (min < Short.MIN_VALUE || max > Short.MAX_VALUE) {
+            return new IceSheetGrid(rows, cols, cells, null);
+        }
+        short[] narrow = new short[cells.length];
+        for (int i = 0; i < cells.length; i++) {
+            narrow[i] = (short) cells[i];
+        }
+        return new IceSheetGrid(rows, cols, null, narrow);
+    }
+
+    int rows() {
+        return rows;
+    }
+
+    int cols() {
+        return cols;
+    }
+
+    /**
+     * @return number of cells
+     */
+    int size() {
+        return rows * cols;
+    }
 
-            if (topAdjacent % 10 == 0) {  // Check if the top adjacent value is a crack point
-                crackPoints[count] = topAdjacent;
-                crackPointLocations[count] = shiftedRow + " x " + col;
-                count++;
+    /**
+     * @return true when the values are stored as shorts
+     */
+    boolean isShort() {
+        return shorts != null;
+    }
+
+    /**
+     * The index of a cell in the flat storage
+     * @param row row of the cell
+     * @param col column of the cell
+     * @return row * cols + col
+     */
+    int index(int row, int col) {
+        return row * cols + col;
+    }
+
+    int rowOf(int index) {
+        return index / cols;
+    }
+
+    int colOf(int index) {
+        return index % cols;
+    }
+
+    /**
+     * The value at an index of the flat storage
+     * @param index index of the cell
+     * @return value of the cell
+     */
+    int get(int index) {
+        return shorts != null ? shorts[index] : ints[index];
+    }
+
+    /**
+     * The value at a row and column
+     * @param row row of the cell
+     * @param col column of the cell
+     * @return value of the cell
+     */
+    int get(int row, int col) {
+        return get(row * cols + col);
+    }
+
+    /**
+     * Copy one row out of the grid
+     * @param row the row to copy
+     * @return a new array with the values of the row
+     */
+    int[] row(int row) {
+        int[] values = new int[cols];
+        copyRow(row, values);
+        return values;
+    }
+
+    /**
+     * Copy one row into an existing array, widening shorts to ints
+     * @param row the row to copy
+     * @param into array of at least cols values to copy the row into
+     */
+    void copyRow(int row, int[] into) {
+        int start = row * cols;
+        if (shorts != null) {
+            for (int col = 0; col < cols; col++) {
+                into[col] = shorts[start + col];
             }
+        } else {
+            System.arraycopy(ints, start, into, 0, cols);
         }
+    }
+}
+
+/**
+ * Reads the whitespace-separated integers of an ice sheet file straight from its bytes.
+ * The file is memory-mapped one window at a time, so files larger than 2 GB can be read and only the
+ * window being decoded has to be resident. Numbers are decoded digit by digit as they are read, with no
+ * String or other object created per value, and a number may run across the end of a window.
+ */
+class IceSheetReader implements AutoCloseable {
 
-        if (row < iceSheets[sheet].length - 1) {  // Check if the bottom adjacent value is not at the bottom edge of the array
-            int shiftedRow = row + 1;
-            bottomAdjacent = iceSheets[sheet][shiftedRow][col];
+    static final long WINDOW = 1L << 26;  // Bytes mapped at a time
 
-            if (bottomAdjacent % 10 == 0) {  // Check if the bottom adjacent value is a crack point
-                crackPoints[count] = bottomAdjacent;
-                crackPointLocations[count] = shiftedRow + " x " + col;
+    private final FileChannel channel;
+    private final long size;
+    private long windowEnd;            // File position just past the mapped window
+    private MappedByteBuffer window;
+
+    /**
+     * Open a file for reading
+     * @param filePath path to the file
+     * @throws IOException if the file cannot be opened
+     */
+    IceSheetReader(Path filePath) throws IOException {
+        channel = FileChannel.open(filePath, StandardOpenOption.READ);
+        size = channel.size();
+    }
+
+    /**
+     * Read the next byte, mapping the next window when the current one is used up
+     * @return the byte as a value from 0 to 255, or -1 at the end of the file
+     * @throws IOException if the file cannot be mapped
+     */
+    private int nextByte() throws IOException {
+        if (window == null || !window.hasRemaining()) {
+            if (windowEnd >= size) {
+                return -1;
             }
+            long length = Math.min(WINDOW, size - windowEnd);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, windowEnd, length);
+            windowEnd += length;
+        }
+        return window.get() & 0xFF;  // Without the mask a 0xFF byte would read as the end of the file
+    }
+
+    /**
+     * Read the next integer, skipping any whitespace before it
+     * @return the integer
+     * @throws EOFException if the file ends before the next integer
+     * @throws IOException if the next thing in the file is not an integer or does not fit in an int
+     */
+    int nextInt() throws IOException {
+        int b = nextByte();
+        while (b == ' ' || b == '\n' || b == '\r' || b == '\t') {  // Skip whitespace
+            b = nextByte();
+        }
+        if (b == -1) {
+            throw new EOFException("Unexpected end of file");
         }
 
-        // Remove 0 values from crackPoints array
-        crackPoints = Arrays.stream(crackPoints).filter(value -> value != 0).toArray();
+        boolean negative = b == '-';
+        if (negative) {
+            b = nextByte();
+        }
+        if (b < '0' || b > '9') {
+            throw new IOException("Expected a number but found '" + (char) b + "'");
+        }
+        long limit = negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+        long value = 0;
+        do {
+            value = value * 10 + (b - '0');
+            if (value > limit) {  // Stop before it wraps rather than return a wrong value
+                throw new IOException("Number out of range for an int");
+            }
+            b = nextByte();
+        } while (b >= '0' && b <= '9');
 
-        // Remove null values from crackPointLocations array
-        crackPointLocations = Arrays.stream(crackPointLocations).filter(value -> value != null).toArray(String[]::new);
+        if (b != -1 && b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+            throw new IOException("Unexpected character '" + (char) b + "' after a number");
+        }
+        return (int) (negative ? -value : value);
+    }
 
-        return new Object[]{crackPoints, crackPointLocations};  // Return crack points and crack point locations
+    @Override
+    public void close() throws IOException {
+        channel.close();
     }
 }
@@ -0,0 +1,441 @@
+/**
+ * Forked-JVM benchmark matrix for the sorting algorithms in sortcomparison.java
+ *
+ * Main times every algorithm on one array in one JVM, so the JIT profile built by one algorithm carries
+ * into the next. This runner measures each (algorithm, size, distribution) cell in a JVM of its own and
+ * writes the whole matrix as CSV and JSON.
+ *
+ * It uses HelperClass.sort and Workload from sortcomparison.java, so compile that first and this file,
+ * with performancebaseline.java for the --baseline check, against its classes:
+ *
+ *   javac -d classes Main.java
+ *   javac -cp classes -d classes BenchmarkMatrix.java PerformanceBaseline.java
+ *   java -cp classes BenchmarkMatrix
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the sorting benchmark as a matrix of (algorithm, size, distribution) cells, each in a fresh forked
+ * JVM so the JIT profile of one algorithm cannot slow down the next. Cells run concurrently, at most one per
+ * core of the CPU budget, and each child is pinned to its own core with taskset when that is available.
+ * Every cell reports the median, p90, mean and standard deviation of its timed runs and the comparisons of
+ * one sort, and the whole matrix is written as results.csv and results.json.
+ *
+ *   java -cp classes BenchmarkMatrix [--cpus 4] [--warmup 5] [--runs 15] [--algorithms abcdefgh]
+ *                                   [--sizes 20,100,10000,50000] [--distributions UNIFORM,SORTED,...] [--out results]
+ *                                   [--baseline baselines [--threshold 0.05] [--alpha 0.01] [--update-baseline]]
+ *
+ * With --baseline the run is also recorded in that PerformanceBaseline store and compared with its baseline.
+ * The comparison is written to report.txt next to the results, and the process exits with status 1 if any
+ * cell regressed.
+ *
+ * The child JVMs run "java BenchmarkMatrix cell ..." on the same class path, which measures one cell and
+ * prints its run times and comparisons for the parent to collect.
+ */
+@SuppressWarnings("auxiliaryclass") // Workload, SortCounters and HelperClass live in Main.java by design
+class BenchmarkMatrix {
+
+    static final int BOUND = 1000;     // Same bound Main uses for its arrays
+    static final long SEED = Main.DEFAULT_SEED;
+
+    /**
+     * One cell of the matrix and, once it has run, its results
+     */
+    static final class Cell {
+        final char algorithm;
+        final int size;
+        final String distribution;  // Name of a Workload.Distribution
+        long[] nanos;       // Time of each measured run, sorted ascending
+        long comparisons;   // Comparisons made by one sort - the same on every run
+        String error;       // Why the cell failed, or null
+
+        Cell(char algorithm, int size, String distribution) {
+            this.algorithm = algorithm;
+            this.size = size;
+            this.distribution = distribution;
+        }
+
+        double median() {
+            int n = nanos.length;
+            return n % 2 == 1 ? nanos[n / 2] : (nanos[n / 2 - 1] + nanos[n / 2]) / 2.0;
+        }
+
+        double p90() {
+            return nanos[(int) Math.ceil(0.9 * nanos.length) - 1];  // Nearest rank
+        }
+
+        double mean() {
+            double sum = 0;
+            for (long time : nanos) {
+                sum += time;
+            }
+            return sum / nanos.length;
+        }
+
+        double stddev() {
+            if (nanos.length < 2) {
+                return 0;
+            }
+            double mean = mean();
+            double squares = 0;
+            for (long time : nanos) {
+                squares += (time - mean) * (time - mean);
+            }
+            return Math.sqrt(squares / (nanos.length - 1));
+        }
+
+        String key() {
+            return algorithm + "/" + size + "/" + distribution;
+        }
+    }
+
+    /**
+     * Run the matrix, or one cell when the first argument is "cell"
+     * @param args - the options in the class comment
+     * @throws Exception if a result file cannot be written
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("cell")) {
+            runCell(args);
+            return;
+        }
+
+        int cpus = Runtime.getRuntime().availableProcessors();
+        int warmup = 5;
+        int runs = 15;
+        String algorithms = "abcdefgh";
+        String sizes = "20,100,10000,50000";
+        String distributions = null;  // All of them
+        Path out = Path.of("results");
+        Path baselineDirectory = null;
+        double threshold = PerformanceBaseline.DEFAULT_THRESHOLD;
+        double alpha = PerformanceBaseline.DEFAULT_ALPHA;
+        boolean updateBaseline = false;
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--update-baseline")) {  // The one option without a value
+                updateBaseline = true;
+                continue;
+            }
+            if (++i == args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[i];
+            switch (option) {
+                case "--cpus": cpus = Integer.parseInt(value); break;
+                case "--warmup": warmup = Integer.parseInt(value); break;
+                case "--runs": runs = Integer.parseInt(value); break;
+                case "--algorithms": algorithms = value; break;
+                case "--sizes": sizes = value; break;
+                case "--distributions": distributions = value; break;
+                case "--out": out = Path.of(value); break;
+                case "--baseline": baselineDirectory = Path.of(value); break;
+                case "--threshold": threshold = Double.parseDouble(value); break;
+                case "--alpha": alpha = Double.parseDouble(value); break;
+                default: throw new IllegalArgumentException("Unknown option: " + option);
+            }
+        }
+
+        List<Cell> cells = new ArrayList<>();
+        for (char algorithm : algorithms.toCharArray()) {
+            for (String size : sizes.split(",")) {
+                if (distributions == null) {
+                    for (Workload.Distribution distribution : Workload.Distribution.values()) {
+                        cells.add(new Cell(algorithm, Integer.parseInt(size.trim()), distribution.name()));
+                    }
+                } else {
+                    for (String distribution : distributions.split(",")) {
+                        cells.add(new Cell(algorithm, Integer.parseInt(size.trim()),
+                                Workload.Distribution.valueOf(distribution.trim()).name()));
+                    }
+                }
+            }
+        }
+
+        run(cells, cpus, warmup, runs);
+        Files.createDirectories(out);
+        writeCsv(cells, out.resolve("results.csv"));
+        writeJson(cells, out.resolve("results.json"));
+        System.out.println("Results written to " + out.resolve("results.csv") + " and " + out.resolve("results.json"));
+
+        if (baselineDirectory != null) {
+            PerformanceBaseline store = new PerformanceBaseline(baselineDirectory);
+            if (!store.check(cells, threshold, alpha, updateBaseline, out.resolve("report.txt"))) {
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Run every cell in its own JVM, at most cpus at a time
+     *
+     * @param cells The cells to run - their results are filled in
+     * @param cpus The number of cells to run at once
+     * @param warmup Untimed sorts before the timed ones
+     * @param runs Timed sorts per cell
+     * @throws InterruptedException if interrupted while waiting for the cells
+     */
+    static void run(List<Cell> cells, int cpus, int warmup, int runs) throws InterruptedException {
+        int[] cores = allowedCores();
+        boolean pin = cores.length >= cpus && Files.isExecutable(Path.of("/usr/bin/taskset"));
+        if (!pin) {  // Without pinning the queue just hands out slot numbers
+            cores = new int[cpus];
+            for (int i = 0; i < cpus; i++) {
+                cores[i] = i;
+            }
+        }
+        BlockingQueue<Integer> freeCores = new ArrayBlockingQueue<>(cpus);
+        for (int i = 0; i < cpus; i++) {
+            freeCores.add(cores[i]);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(cpus);
+        try {
+            List<Future<?>> pending = new ArrayList<>();
+            for (Cell cell : cells) {
+                boolean pinned = pin;
+                pending.add(executor.submit(() -> {
+                    int core = freeCores.take();
+                    try {
+                        runChild(cell, pinned ? core : -1, warmup, runs);
+                    } finally {
+                        freeCores.add(core);
+                    }
+                    synchronized (System.out) {
+                        System.out.println(cell.error == null
+                                ? String.format("%-24s median %12.0f ns  p90 %12.0f ns", cell.key(), cell.median(), cell.p90())
+                                : String.format("%-24s failed: %s", cell.key(), cell.error));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : pending) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Launch the child JVM for one cell and read its results
+     */
+    private static void runChild(Cell cell, int core, int warmup, int runs) {
+        List<String> command = new ArrayList<>();
+        if (core >= 0) {
+            command.add("/usr/bin/taskset");
+            command.add("-c");
+            command.add(Integer.toString(core));
+        }
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("-XX:ActiveProcessorCount=1");  // Keep the common pool of a pinned child at one thread
+        command.add(BenchmarkMatrix.class.getName());
+        command.add("cell");
+        command.add(String.valueOf(cell.algorithm));
+        command.add(Integer.toString(cell.size));
+        command.add(cell.distribution);
+        command.add(Integer.toString(warmup));
+        command.add(Integer.toString(runs));
+
+        try {
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            String lastLine = "";
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("nanos ")) {
+                        String[] parts = line.substring(6).trim().split(" ");
+                        long[] nanos = new long[parts.length];
+                        for (int i = 0; i < parts.length; i++) {
+                            nanos[i] = Long.parseLong(parts[i]);
+                        }
+                        Arrays.sort(nanos);
+                        cell.nanos = nanos;
+                    } else if (line.startsWith("comparisons ")) {
+                        cell.comparisons = Long.parseLong(line.substring(12).trim());
+                    } else {
+                        lastLine = line;
+                    }
+                }
+            }
+            int exitCode = process.waitFor();
+            if (exitCode != 0 || cell.nanos == null) {
+                cell.error = "exit code " + exitCode + (lastLine.isEmpty() ? "" : ": " + lastLine);
+                cell.nanos = null;
+            }
+        } catch (IOException e) {
+            cell.error = e.toString();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cell.error = "interrupted";
+        }
+    }
+
+    /**
+     * The body of a child JVM: sort fresh copies of the cell's data and print the times and comparisons
+     */
+    private static void runCell(String[] args) {
+        char algorithm = args[1].charAt(0);
+        int size = Integer.parseInt(args[2]);
+        Workload.Distribution distribution = Workload.Distribution.valueOf(args[3]);
+        int warmup = Integer.parseInt(args[4]);
+        int runs = Integer.parseInt(args[5]);
+
+        int[] source = Workload.generate(distribution, size, BOUND, SEED);
+        int[] work = new int[size];
+        SortCounters counters = new SortCounters();
+        StringBuilder nanos = new StringBuilder("nanos");
+        for (int i = 0; i < warmup + runs; i++) {
+            System.arraycopy(source, 0, work, 0, size);
+            counters.reset();
+            long start = System.nanoTime();
+            HelperClass.sort(algorithm, work, counters);
+            long time = System.nanoTime() - start;
+            if (i >= warmup) {
+                nanos.append(' ').append(time);
+            }
+        }
+        System.out.println(nanos);
+        System.out.println("comparisons " + counters.comparisons);
+    }
+
+    /**
+     * The CPUs this process may run on, from Cpus_allowed_list in /proc/self/status,
+     * or none when that cannot be read
+     */
+    static int[] allowedCores() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("Cpus_allowed_list:")) {
+                    List<Integer> cores = new ArrayList<>();
+                    for (String range : line.substring(line.indexOf(':') + 1).trim().split(",")) {
+                        String[] bounds = range.split("-");
+                        int first = Integer.parseInt(bounds[0].trim());
+                        int last = bounds.length > 1 ? Integer.parseInt(bounds[1].trim()) : first;
+                        for (int core = first; core <= last; core++) {
+                            cores.add(core);
+                        }
+                    }
+                    return cores.stream().mapToInt(Integer::intValue).toArray();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Not Linux, or a format we do not know - run without pinning
+        }
+        return new int[0];
+    }
+
+    /**
+     * Write one line per cell: algorithm, size, distribution, runs, median, p90, mean, stddev, comparisons, error
+     *
+     * @param cells The cells that have run
+     * @param file The file to write
+     * @throws IOException if the file cannot be written
+     */
+    static void writeCsv(List<Cell> cells, Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("algorithm,size,distribution,runs,median_ns,p90_ns,mean_ns,stddev_ns,comparisons,error\n");
+            for (Cell cell : cells) {
+                if (cell.error == null) {
+                    writer.write(String.format(Locale.ROOT, "%c,%d,%s,%d,%.0f,%.0f,%.1f,%.1f,%d,%n", cell.algorithm, cell.size,
+                            cell.distribution, cell.nanos.length, cell.median(), cell.p90(), cell.mean(),
+                            cell.stddev(), cell.comparisons));
+                } else {
+                    writer.write(String.format(Locale.ROOT, "%c,%d,%s,0,,,,,,\"%s\"%n", cell.algorithm, cell.size,
+                            cell.distribution, cell.error.replace("\"", "\"\"")));
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the cells as a JSON array, including the time of every run so later tools can test
+     * the distributions rather than just the summaries
+     *
+     * @param cells The cells that have run
+     * @param file The file to write
+     * @throws IOException if the file cannot be written
+     */
+    static void writeJson(List<Cell> cells, Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("[\n");
+            for (int c = 0; c < cells.size(); c++) {
+                Cell cell = cells.get(c);
+                writer.write(String.format(Locale.ROOT, "  {\"algorithm\": \"%c\", \"size\": %d, \"distribution\": \"%s\"",
+                        cell.algorithm, cell.size, cell.distribution));
+                if (cell.error == null) {
+                    writer.write(String.format(Locale.ROOT, ", \"medianNanos\": %.0f, \"p90Nanos\": %.0f, \"meanNanos\": %.1f, "
+                                    + "\"stddevNanos\": %.1f, \"comparisons\": %d, \"nanos\": %s}",
+                            cell.median(), cell.p90(), cell.mean(), cell.stddev(), cell.comparisons,
+                            Arrays.toString(cell.nanos)));
+                } else {
+                    writer.write(", \"error\": \"" + escapeJson(cell.error) + "\"}");
+                }
+                writer.write(c + 1 < cells.size() ? ",\n" : "\n");
+            }
+            writer.write("]\n");
+        }
+    }
+
+    /**
+     * Escape a string for a JSON string literal - quotes, backslashes and every control character,
+     * so an exception message with a line break still leaves one cell per line
+     *
+     * @param text The text to escape
+     * @return The escaped text, without the surrounding quotes
+     */
+    static String escapeJson(String text) {
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"':
+                    escaped.append("\\\"");
+                    break;
+                case '\\':
+                    escaped.append("\\\\");
+                    break;
+                case '\n':
+                    escaped.append("\\n");
+                    break;
+                case '\r':
+                    escaped.append("\\r");
+                    break;
+                case '\t':
+                    escaped.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c == 0x7f) {
+                        escaped.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+                    } else {
+                        escaped.append(c);
+                    }
+            }
+        }
+        return escaped.toString();
+    }
+}
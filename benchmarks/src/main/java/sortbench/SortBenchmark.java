@@ -0,0 +1,255 @@
+/**
+ * JMH benchmarks for the sorting and search algorithms in sortcomparison.java
+ *
+ * Main in sortcomparison.java times each algorithm with a single System.nanoTime() pair, which at small
+ * sizes mostly measures JIT compilation and timer noise. These benchmarks run the same HelperClass methods
+ * under JMH with warmup, forked JVMs and Blackhole consumption of every result.
+ *
+ * JMH does not accept benchmarks in the default package, so the build in benchmarks/pom.xml copies
+ * sortcomparison.java into this package next to this file before compiling. From the benchmarks directory:
+ *
+ *   mvn package
+ *   java -jar target/benchmarks.jar
+ *
+ * Any JMH option can be passed on the command line, e.g. "-p algorithm=a,d -p size=50000".
+ *
+ * The scan kernel benchmarks run each scan twice, in a fork without jdk.incubator.vector, where
+ * sortcomparison.java falls back to its scalar loops, and in a fork with it, where ScanKernels routes the
+ * same HelperClass calls to VectorKernels.
+ */
+package sortbench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * This class contains the JMH benchmarks for aSort through gSort, dSortInPlace (h), linearSearch, binarySearch
+ * and the scan kernels
+ * Every benchmark reports throughput and average time, and main adds the GC profiler for allocation rates
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 3)
+public class SortBenchmark {
+
+    static final int BOUND = 1000;  // Same bound Main uses for its generated arrays
+    static final String VECTOR_MODULE = "--add-modules=jdk.incubator.vector";
+
+    /**
+     * State for the sort benchmarks - one unsorted source array per (size, distribution) and a work array
+     * that every invocation copies the source into before sorting it
+     */
+    @State(Scope.Thread)
+    public static class SortState {
+        @Param({"20", "100", "10000", "50000"})
+        int size;
+
+        @Param({"UNIFORM", "SORTED", "REVERSED", "NEARLY_SORTED", "FEW_UNIQUE", "SAWTOOTH", "ORGAN_PIPE", "ZIPFIAN"})
+        String distribution;
+
+        @Param({"a", "b", "c", "d", "e", "f", "g", "h"})
+        String algorithm;
+
+        @Param({"838215"})
+        long seed;
+
+        char sortName;
+        int[] source;
+        int[] work;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            sortName = algorithm.charAt(0);
+            source = Workload.generate(Workload.Distribution.valueOf(distribution), size, BOUND, seed);
+            work = new int[size];
+        }
+    }
+
+    /**
+     * State for the search benchmarks - the same data unsorted and sorted, plus a ring of query values
+     * where half the queries hit and half miss
+     */
+    @State(Scope.Thread)
+    public static class SearchState {
+        @Param({"20", "100", "10000", "50000"})
+        int size;
+
+        @Param({"UNIFORM", "SORTED", "NEARLY_SORTED", "FEW_UNIQUE", "ZIPFIAN"})
+        String distribution;
+
+        @Param({"838215"})
+        long seed;
+
+        int[] unsortedArray;
+        int[] sortedArray;
+        int[] queries;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            unsortedArray = Workload.generate(Workload.Distribution.valueOf(distribution), size, BOUND, seed);
+            sortedArray = HelperClass.copyArray(unsortedArray);
+            HelperClass.dSort(sortedArray);
+
+            Random rand = new Random(seed + 1);
+            queries = new int[1024];
+            for (int i = 0; i < queries.length; i++) {
+                // Even slots hit a value from the data, odd slots are always absent
+                queries[i] = (i % 2 == 0) ? unsortedArray[rand.nextInt(size)] : -1 - rand.nextInt(BOUND);
+            }
+        }
+
+        int nextQuery() {
+            int value = queries[next];
+            next = (next + 1) & (queries.length - 1);
+            return value;
+        }
+    }
+
+    /**
+     * State for the scan kernel benchmarks - uniform ints up to Integer.MAX_VALUE, so every radix digit
+     * varies and gSort takes four digit passes instead of its counting sort
+     */
+    @State(Scope.Thread)
+    public static class ScanState {
+        @Param({"1000", "100000", "10000000"})
+        int size;
+
+        @Param({"838215"})
+        long seed;
+
+        int[] source;
+        int[] work;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            source = Workload.generate(Workload.Distribution.UNIFORM, size, Integer.MAX_VALUE, seed);
+            work = new int[size];
+        }
+    }
+
+    /**
+     * Sort a fresh copy of the source array with the selected algorithm
+     * The copy is part of every invocation so it costs every algorithm the same, and the
+     * NOOP metrics sink keeps the counting out of the measurement
+     */
+    @Benchmark
+    public void sort(SortState state, Blackhole blackhole) {
+        System.arraycopy(state.source, 0, state.work, 0, state.size);
+        HelperClass.sort(state.sortName, state.work, SortMetrics.NOOP);
+        blackhole.consume(state.work);
+    }
+
+    @Benchmark
+    public int linearSearch(SearchState state) {
+        return HelperClass.linearSearch(state.unsortedArray, state.nextQuery());
+    }
+
+    @Benchmark
+    public int binarySearch(SearchState state) {
+        return HelperClass.binarySearch(state.sortedArray, state.nextQuery());
+    }
+
+    /**
+     * Search for a value that is never there, so the whole array is scanned - scalar loop
+     */
+    @Benchmark
+    @Fork(value = 3)
+    public int scanLinearSearchScalar(ScanState state) {
+        return HelperClass.linearSearch(state.source, state.source[0] ^ 1);
+    }
+
+    /**
+     * The same search with the kernels loaded
+     */
+    @Benchmark
+    @Fork(value = 3, jvmArgsAppend = VECTOR_MODULE)
+    public int scanLinearSearchVector(ScanState state) {
+        return HelperClass.linearSearch(state.source, state.source[0] ^ 1);
+    }
+
+    @Benchmark
+    @Fork(value = 3)
+    public long scanMinMaxScalar(ScanState state) {
+        return HelperClass.minMax(state.source);
+    }
+
+    @Benchmark
+    @Fork(value = 3, jvmArgsAppend = VECTOR_MODULE)
+    public long scanMinMaxVector(ScanState state) {
+        return VectorKernels.minMax(state.source);
+    }
+
+    @Benchmark
+    @Fork(value = 3)
+    public int scanCountInRangeScalar(ScanState state) {
+        int count = 0;
+        for (int value : state.source) {
+            count += (value >= 0 && value <= Integer.MAX_VALUE / 2) ? 1 : 0;
+        }
+        return count;
+    }
+
+    @Benchmark
+    @Fork(value = 3, jvmArgsAppend = VECTOR_MODULE)
+    public int scanCountInRangeVector(ScanState state) {
+        return VectorKernels.countInRange(state.source, 0, Integer.MAX_VALUE / 2);
+    }
+
+    /**
+     * Radix sort a fresh copy of wide-range ints - the digit histograms are the scalar loops
+     */
+    @Benchmark
+    @Fork(value = 3)
+    public void scanRadixSortScalar(ScanState state, Blackhole blackhole) {
+        System.arraycopy(state.source, 0, state.work, 0, state.size);
+        HelperClass.gSort(state.work, SortMetrics.NOOP);
+        blackhole.consume(state.work);
+    }
+
+    /**
+     * The same sort with the digit histograms counted by VectorKernels.digitHistogram
+     */
+    @Benchmark
+    @Fork(value = 3, jvmArgsAppend = VECTOR_MODULE)
+    public void scanRadixSortVector(ScanState state, Blackhole blackhole) {
+        System.arraycopy(state.source, 0, state.work, 0, state.size);
+        HelperClass.gSort(state.work, SortMetrics.NOOP);
+        blackhole.consume(state.work);
+    }
+
+    /**
+     * Run every benchmark with the GC profiler so the allocation rate is reported next to the timings
+     * @param args - optional JMH command line options
+     * @throws Exception if the options are invalid or JMH fails to run
+     */
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(SortBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,432 @@
+/**
+ * Regression check of BenchmarkMatrix results against a stored baseline
+ *
+ * BenchmarkMatrix --baseline records each run here and fails the run when a cell got slower or does more
+ * comparisons than the baseline. Run on its own, this compares two result files.
+ *
+ * It reads and writes BenchmarkMatrix cells, so it is compiled together with benchmarkmatrix.java against
+ * the classes of sortcomparison.java:
+ *
+ *   javac -d classes Main.java
+ *   javac -cp classes -d classes BenchmarkMatrix.java PerformanceBaseline.java
+ *   java -cp classes PerformanceBaseline baseline.json results.json
+ */
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A file-based store of benchmark results and the regression check against it. Every run checked against
+ * the store is kept as history/run-<time>.json, in the format BenchmarkMatrix.writeJson writes, and
+ * baseline.json holds the run that later runs are compared with. A run replaces the baseline when it has
+ * no regressions, or always when asked to.
+ *
+ * A cell has regressed when its median time grew by more than the threshold and a one-sided Mann-Whitney
+ * U test over the run times says the slowdown is not noise, or when its comparison count grew by more than
+ * the threshold - comparisons do not vary between runs, so no test is needed for them. A cell that failed
+ * to run counts as a regression too.
+ *
+ *   java -cp classes PerformanceBaseline baseline.json results.json [--threshold 0.05] [--alpha 0.01]
+ *
+ * compares two result files without touching any store and exits with status 1 on a regression.
+ */
+class PerformanceBaseline {
+
+    static final double DEFAULT_THRESHOLD = 0.05;  // Slowdowns of 5% or less are never reported
+    static final double DEFAULT_ALPHA = 0.01;      // Significance level of the Mann-Whitney test
+
+    /**
+     * The outcome for one cell
+     */
+    enum Verdict {
+        REGRESSED,  // Slower or more comparisons beyond the threshold
+        FAILED,     // The cell did not run
+        IMPROVED,   // Faster beyond the threshold
+        UNCHANGED,
+        NEW,        // Not in the baseline
+        MISSING     // In the baseline but not in this run
+    }
+
+    /**
+     * One cell of the baseline next to the same cell of the current run
+     */
+    static final class Comparison {
+        final String key;
+        final BenchmarkMatrix.Cell baseline;  // Null for NEW
+        final BenchmarkMatrix.Cell current;   // Null for MISSING
+        double timeChange;                    // Relative change of the median time
+        double comparisonChange;              // Relative change of the comparisons
+        double pValue = 1;                    // Of the test in the direction of the change
+        Verdict verdict;
+
+        Comparison(String key, BenchmarkMatrix.Cell baseline, BenchmarkMatrix.Cell current) {
+            this.key = key;
+            this.baseline = baseline;
+            this.current = current;
+        }
+    }
+
+    private final Path directory;
+
+    /**
+     * @param directory The directory of the store - it is created on the first write
+     */
+    PerformanceBaseline(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Record a run, compare it with the baseline and write the report. The first run recorded becomes the
+     * baseline without a comparison.
+     *
+     * @param cells The cells of the run
+     * @param threshold The relative slowdown that counts as a regression
+     * @param alpha The significance level of the test
+     * @param updateBaseline Make this run the baseline even if it regressed
+     * @param report Where to write the report
+     * @return true when no cell regressed or failed
+     * @throws IOException if the store or the report cannot be read or written
+     */
+    boolean check(List<BenchmarkMatrix.Cell> cells, double threshold, double alpha, boolean updateBaseline,
+                  Path report) throws IOException {
+        Path history = directory.resolve("history");
+        Files.createDirectories(history);
+        BenchmarkMatrix.writeJson(cells, history.resolve("run-" + System.currentTimeMillis() + ".json"));
+
+        Path baselineFile = directory.resolve("baseline.json");
+        if (!Files.exists(baselineFile)) {
+            accept(cells, baselineFile);
+            System.out.println("No baseline yet - this run is now the baseline in " + baselineFile);
+            return true;
+        }
+
+        List<Comparison> comparisons = compare(readJson(baselineFile), cells, threshold, alpha);
+        boolean passed = passed(comparisons);
+        try (Writer writer = Files.newBufferedWriter(report, StandardCharsets.UTF_8)) {
+            writeReport(comparisons, threshold, alpha, writer);
+        }
+        System.out.print(Files.readString(report));
+        if (passed || updateBaseline) {
+            accept(cells, baselineFile);
+        }
+        return passed;
+    }
+
+    /**
+     * Make a run the baseline, replacing the old one in a single move so a reader never sees half a file
+     */
+    private void accept(List<BenchmarkMatrix.Cell> cells, Path baselineFile) throws IOException {
+        Path temp = directory.resolve("baseline.json.tmp");
+        BenchmarkMatrix.writeJson(cells, temp);
+        Files.move(temp, baselineFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Compare every cell of the current run with the same cell of the baseline
+     *
+     * @param baseline The cells of the baseline
+     * @param current The cells of the current run
+     * @param threshold The relative change that counts
+     * @param alpha The significance level of the test
+     * @return One comparison per cell in either run, current cells first in their order
+     */
+    static List<Comparison> compare(List<BenchmarkMatrix.Cell> baseline, List<BenchmarkMatrix.Cell> current,
+                                    double threshold, double alpha) {
+        Map<String, BenchmarkMatrix.Cell> remaining = new LinkedHashMap<>();
+        for (BenchmarkMatrix.Cell cell : baseline) {
+            remaining.put(cell.key(), cell);
+        }
+        List<Comparison> comparisons = new ArrayList<>();
+        for (BenchmarkMatrix.Cell cell : current) {
+            Comparison comparison = new Comparison(cell.key(), remaining.remove(cell.key()), cell);
+            judge(comparison, threshold, alpha);
+            comparisons.add(comparison);
+        }
+        for (BenchmarkMatrix.Cell cell : remaining.values()) {
+            Comparison comparison = new Comparison(cell.key(), cell, null);
+            comparison.verdict = Verdict.MISSING;
+            comparisons.add(comparison);
+        }
+        return comparisons;
+    }
+
+    private static void judge(Comparison comparison, double threshold, double alpha) {
+        BenchmarkMatrix.Cell before = comparison.baseline;
+        BenchmarkMatrix.Cell after = comparison.current;
+        if (after.error != null) {
+            comparison.verdict = Verdict.FAILED;
+            return;
+        }
+        if (before == null || before.error != null) {
+            comparison.verdict = Verdict.NEW;
+            return;
+        }
+        comparison.timeChange = after.median() / before.median() - 1;
+        comparison.comparisonChange = before.comparisons == 0 ? 0
+                : (double) after.comparisons / before.comparisons - 1;
+
+        if (comparison.timeChange > 0) {
+            comparison.pValue = mannWhitneyGreater(after.nanos, before.nanos);
+        } else {
+            comparison.pValue = mannWhitneyGreater(before.nanos, after.nanos);
+        }
+        boolean significant = comparison.pValue < alpha;
+        if (comparison.comparisonChange > threshold || comparison.timeChange > threshold && significant) {
+            comparison.verdict = Verdict.REGRESSED;
+        } else if (comparison.timeChange < -threshold && significant) {
+            comparison.verdict = Verdict.IMPROVED;
+        } else {
+            comparison.verdict = Verdict.UNCHANGED;
+        }
+    }
+
+    /**
+     * @return true when no comparison is REGRESSED or FAILED
+     */
+    static boolean passed(List<Comparison> comparisons) {
+        for (Comparison comparison : comparisons) {
+            if (comparison.verdict == Verdict.REGRESSED || comparison.verdict == Verdict.FAILED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The one-sided Mann-Whitney U test: the probability of seeing samples x this much larger than samples y
+     * if both came from the same distribution. Uses the normal approximation with the tie correction and a
+     * continuity correction, which is close enough from about eight samples a side.
+     *
+     * @param x The samples suspected to be larger
+     * @param y The other samples
+     * @return The p-value, 1 when either side has no samples
+     */
+    static double mannWhitneyGreater(long[] x, long[] y) {
+        int n1 = x.length;
+        int n2 = y.length;
+        int n = n1 + n2;
+        if (n1 == 0 || n2 == 0) {
+            return 1;
+        }
+
+        // Rank the pooled samples, giving tied values the average of their ranks
+        long[] pooled = new long[n];
+        for (int i = 0; i < n1; i++) {
+            pooled[i] = x[i] << 1 | 1;  // The low bit marks samples from x, and breaks no ties between values
+        }
+        for (int i = 0; i < n2; i++) {
+            pooled[n1 + i] = y[i] << 1;
+        }
+        Arrays.sort(pooled);
+        double rankSumX = 0;
+        double tieTerm = 0;  // Sum of t^3 - t over the groups of t tied values
+        for (int i = 0; i < n; ) {
+            int j = i;
+            while (j < n && pooled[j] >> 1 == pooled[i] >> 1) {
+                j++;
+            }
+            double averageRank = (i + 1 + j) / 2.0;
+            for (int k = i; k < j; k++) {
+                if ((pooled[k] & 1) != 0) {
+                    rankSumX += averageRank;
+                }
+            }
+            double t = j - i;
+            tieTerm += t * t * t - t;
+            i = j;
+        }
+
+        double u = rankSumX - n1 * (n1 + 1) / 2.0;
+        double mean = n1 * (double) n2 / 2;
+        double variance = n1 * (double) n2 / 12 * ((n + 1) - tieTerm / (n * (double) (n - 1)));
+        if (variance <= 0) {  // Every sample is the same value
+            return 1;
+        }
+        double z = (u - mean - 0.5) / Math.sqrt(variance);
+        return 1 - normalCdf(z);
+    }
+
+    /**
+     * The standard normal distribution function, from the erf approximation 7.1.26 of Abramowitz and Stegun
+     * (absolute error below 1.5e-7)
+     */
+    static double normalCdf(double z) {
+        double x = Math.abs(z) / Math.sqrt(2);
+        double t = 1 / (1 + 0.3275911 * x);
+        double erf = 1 - t * (0.254829592 + t * (-0.284496736 + t * (1.421413741
+                + t * (-1.453152027 + t * 1.061405429)))) * Math.exp(-x * x);
+        return z >= 0 ? (1 + erf) / 2 : (1 - erf) / 2;
+    }
+
+    /**
+     * Write the diff report: one line per cell that is not UNCHANGED, then a summary line
+     *
+     * @param comparisons The comparisons to report
+     * @param threshold The threshold used, for the header
+     * @param alpha The significance level used, for the header
+     * @param writer Where to write
+     * @throws IOException if the report cannot be written
+     */
+    static void writeReport(List<Comparison> comparisons, double threshold, double alpha, Writer writer)
+            throws IOException {
+        writer.write(String.format(Locale.ROOT, "Regression check (threshold %.1f%%, alpha %.3f)%n", threshold * 100, alpha));
+        writer.write(String.format(Locale.ROOT, "%-28s %-10s %14s %14s %9s %9s %9s%n",
+                "Cell", "Verdict", "Baseline ns", "Current ns", "Time", "Compares", "p"));
+        int[] counts = new int[Verdict.values().length];
+        for (Comparison comparison : comparisons) {
+            counts[comparison.verdict.ordinal()]++;
+            switch (comparison.verdict) {
+                case UNCHANGED:
+                    break;
+                case REGRESSED:
+                case IMPROVED:
+                    writer.write(String.format(Locale.ROOT, "%-28s %-10s %14.0f %14.0f %+8.1f%% %+8.1f%% %9.4f%n",
+                            comparison.key, comparison.verdict, comparison.baseline.median(),
+                            comparison.current.median(), comparison.timeChange * 100,
+                            comparison.comparisonChange * 100, comparison.pValue));
+                    break;
+                case FAILED:
+                    writer.write(String.format(Locale.ROOT, "%-28s %-10s %s%n", comparison.key, comparison.verdict,
+                            comparison.current.error));
+                    break;
+                default:
+                    writer.write(String.format(Locale.ROOT, "%-28s %s%n", comparison.key, comparison.verdict));
+            }
+        }
+        StringBuilder summary = new StringBuilder();
+        for (Verdict verdict : Verdict.values()) {
+            summary.append(summary.length() == 0 ? "" : ", ").append(counts[verdict.ordinal()]).append(' ')
+                    .append(verdict.name().toLowerCase(Locale.ROOT));
+        }
+        writer.write(summary + System.lineSeparator());
+    }
+
+    private static final Pattern CELL = Pattern.compile(
+            "\\{\"algorithm\": \"(.)\", \"size\": (\\d+), \"distribution\": \"(\\w+)\"(.*)}");
+    private static final Pattern COMPARISONS = Pattern.compile("\"comparisons\": (\\d+)");
+    private static final Pattern NANOS = Pattern.compile("\"nanos\": \\[([^\\]]*)]");
+    private static final Pattern ERROR = Pattern.compile("\"error\": \"((?:[^\"\\\\]|\\\\.)*)\"");
+
+    /**
+     * Read a file written by BenchmarkMatrix.writeJson. This reads that exact layout, one cell per line,
+     * and is not a general JSON parser.
+     *
+     * @param file The file to read
+     * @return The cells in the file
+     * @throws IOException if the file cannot be read
+     */
+    static List<BenchmarkMatrix.Cell> readJson(Path file) throws IOException {
+        List<BenchmarkMatrix.Cell> cells = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            Matcher matcher = CELL.matcher(line.trim());
+            if (!matcher.find()) {
+                continue;
+            }
+            BenchmarkMatrix.Cell cell = new BenchmarkMatrix.Cell(matcher.group(1).charAt(0),
+                    Integer.parseInt(matcher.group(2)), matcher.group(3));
+            String rest = matcher.group(4);
+            Matcher error = ERROR.matcher(rest);
+            Matcher nanos = NANOS.matcher(rest);
+            Matcher comparisons = COMPARISONS.matcher(rest);
+            if (error.find()) {
+                cell.error = unescapeJson(error.group(1));
+            } else if (nanos.find() && comparisons.find()) {
+                String[] parts = nanos.group(1).split(",");
+                cell.nanos = new long[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    cell.nanos[i] = Long.parseLong(parts[i].trim());
+                }
+                cell.comparisons = Long.parseLong(comparisons.group(1));
+            } else {
+                throw new IOException("Malformed cell in " + file + ": " + line);
+            }
+            cells.add(cell);
+        }
+        return cells;
+    }
+
+    /**
+     * Undo BenchmarkMatrix.escapeJson
+     *
+     * @param text The contents of a JSON string literal
+     * @return The text it stands for
+     */
+    static String unescapeJson(String text) {
+        StringBuilder unescaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c != '\\' || i + 1 == text.length()) {
+                unescaped.append(c);
+                continue;
+            }
+            char next = text.charAt(++i);
+            switch (next) {
+                case 'n':
+                    unescaped.append('\n');
+                    break;
+                case 'r':
+                    unescaped.append('\r');
+                    break;
+                case 't':
+                    unescaped.append('\t');
+                    break;
+                case 'b':
+                    unescaped.append('\b');
+                    break;
+                case 'f':
+                    unescaped.append('\f');
+                    break;
+                case 'u':  // Four hex digits follow
+                    if (i + 4 < text.length()) {
+                        unescaped.append((char) Integer.parseInt(text.substring(i + 1, i + 5), 16));
+                        i += 4;
+                    } else {
+                        unescaped.append(next);
+                    }
+                    break;
+                default:  // \" \\ and \/ stand for the character itself
+                    unescaped.append(next);
+            }
+        }
+        return unescaped.toString();
+    }
+
+    /**
+     * Compare two result files
+     * @param args - the baseline file, the current file, then optional --threshold and --alpha
+     * @throws IOException if a file cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: java PerformanceBaseline baseline.json results.json [--threshold 0.05] [--alpha 0.01]");
+            System.exit(2);
+        }
+        double threshold = DEFAULT_THRESHOLD;
+        double alpha = DEFAULT_ALPHA;
+        for (int i = 2; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--threshold": threshold = Double.parseDouble(args[i + 1]); break;
+                case "--alpha": alpha = Double.parseDouble(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        List<Comparison> comparisons = compare(readJson(Path.of(args[0])), readJson(Path.of(args[1])), threshold, alpha);
+        Writer writer = new PrintWriter(System.out);
+        writeReport(comparisons, threshold, alpha, writer);
+        writer.flush();
+        System.exit(passed(comparisons) ? 0 : 1);
+    }
+}
@@ -0,0 +1,367 @@
+/**
+ * A search service over sorted snapshots, with a TCP front end and a load generator
+ *
+ * It sorts and searches with HelperClass from sortcomparison.java, so compile that first and this file
+ * against its classes:
+ *
+ *   javac -d classes Main.java
+ *   javac -cp classes -d classes SnapshotSearchService.java
+ *   java -cp classes SnapshotSearchService
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A search service over a sorted snapshot of int values. Readers search whatever array the snapshot
+ * reference holds and never wait: updates are sorted on a background thread into a new array, which then
+ * replaces the old one with a single compare-and-set. A reader that already holds the old array finishes
+ * its search on it - snapshots are never changed after they are published.
+ *
+ * The service can also listen on a loopback TCP port, one connection per client. A request is a 4 byte
+ * big-endian int and the reply is one byte, 1 if the value is present and 0 if not. Connections are handled
+ * on virtual threads when the JVM has them (Java 21 and later) and on a cached thread pool otherwise.
+ *
+ *   java -cp classes SnapshotSearchService [--size 1000000] [--clients 256] [--pipeline 1]
+ *                                          [--queries 200000] [--updates 10000]
+ *
+ * runs the service with a load generator against it: each client keeps --pipeline lookups in flight on its
+ * connection while batches of updates are merged in and published, so at most clients * pipeline lookups
+ * are outstanding at once. The latency of a lookup runs from its request to its reply, and with a pipeline
+ * deeper than one it includes the wait behind the earlier requests on the same connection.
+ */
+@SuppressWarnings("auxiliaryclass") // HelperClass, SortMetrics and Workload live in Main.java by design
+class SnapshotSearchService implements AutoCloseable {
+
+    // Executors.newVirtualThreadPerTaskExecutor, or null when the JVM has no virtual threads - looked up by
+    // reflection so this still compiles and runs on Java 17
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = virtualThreadExecutorFactory();
+
+    // What the lookup found - whether newHandlerExecutor starts virtual threads
+    static final boolean VIRTUAL_THREADS = NEW_VIRTUAL_THREAD_EXECUTOR != null;
+
+
+    private final AtomicReference<int[]> snapshot;
+    private final AtomicLong publications = new AtomicLong();
+    private final ExecutorService sorter = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "snapshot-sorter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService handlers = newHandlerExecutor();
+    private volatile ServerSocket server;
+
+    /**
+     * @param values The initial values - copied and sorted before the constructor returns
+     */
+    SnapshotSearchService(int[] values) {
+        int[] sorted = values.clone();
+        HelperClass.gSort(sorted, SortMetrics.NOOP);
+        snapshot = new AtomicReference<>(sorted);
+    }
+
+    private static Method virtualThreadExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;  // Before Java 21
+        }
+    }
+
+    /**
+     * An executor that starts a virtual thread per task when VIRTUAL_THREADS, and a cached pool of daemon
+     * platform threads otherwise
+     */
+    static ExecutorService newHandlerExecutor() {
+        if (VIRTUAL_THREADS) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Cannot create a virtual thread executor", e);
+            }
+        }
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return "virtual" when handlers run on virtual threads, "platform" otherwise
+     */
+    static String handlerThreads() {
+        return VIRTUAL_THREADS ? "virtual" : "platform";
+    }
+
+    /**
+     * @return The current snapshot - sorted, and never modified
+     */
+    int[] snapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * @return The number of snapshots published since the service started
+     */
+    long publications() {
+        return publications.get();
+    }
+
+    /**
+     * Look a value up in the current snapshot
+     *
+     * @param value The value to look for
+     * @return true if the value is present
+     */
+    boolean contains(int value) {
+        return HelperClass.binarySearch(snapshot.get(), value) >= 0;
+    }
+
+    /**
+     * Replace every value, sorting the new ones on the background thread
+     *
+     * @param values The new values - copied before this method returns
+     * @return Completes with the published snapshot
+     */
+    CompletableFuture<int[]> replace(int[] values) {
+        int[] copy = values.clone();
+        return CompletableFuture.supplyAsync(() -> {
+            HelperClass.gSort(copy, SortMetrics.NOOP);
+            snapshot.set(copy);
+            publications.incrementAndGet();
+            return copy;
+        }, sorter);
+    }
+
+    /**
+     * Add values, sorting them on the background thread and merging them into the current snapshot.
+     * If another update publishes first, the merge is redone on top of it, so no update is lost.
+     *
+     * @param values The values to add - copied before this method returns
+     * @return Completes with the published snapshot
+     */
+    CompletableFuture<int[]> addAll(int[] values) {
+        int[] delta = values.clone();
+        return CompletableFuture.supplyAsync(() -> {
+            HelperClass.gSort(delta, SortMetrics.NOOP);
+            while (true) {
+                int[] base = snapshot.get();
+                int[] merged = merge(base, delta);
+                if (snapshot.compareAndSet(base, merged)) {
+                    publications.incrementAndGet();
+                    return merged;
+                }
+            }
+        }, sorter);
+    }
+
+    /**
+     * Merge two sorted arrays into a new one
+     */
+    static int[] merge(int[] first, int[] second) {
+        int[] merged = new int[first.length + second.length];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < first.length && j < second.length) {
+            merged[k++] = second[j] < first[i] ? second[j++] : first[i++];
+        }
+        System.arraycopy(first, i, merged, k, first.length - i);
+        System.arraycopy(second, j, merged, k + first.length - i, second.length - j);
+        return merged;
+    }
+
+    /**
+     * Start serving lookups on a loopback port
+     *
+     * @param port The port, or 0 for any free one
+     * @return The port the service listens on
+     * @throws IOException if the port cannot be bound
+     */
+    int listen(int port) throws IOException {
+        ServerSocket socket = new ServerSocket();
+        socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        server = socket;
+        handlers.execute(() -> {
+            while (!socket.isClosed()) {
+                try {
+                    Socket client = socket.accept();
+                    handlers.execute(() -> serve(client));
+                } catch (IOException e) {
+                    // The socket was closed - stop accepting
+                }
+            }
+        });
+        return socket.getLocalPort();
+    }
+
+    /**
+     * Answer the requests of one connection until the client closes it
+     */
+    private void serve(Socket client) {
+        try (Socket socket = client;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            socket.setTcpNoDelay(true);
+            while (true) {
+                int value = in.readInt();
+                out.writeByte(contains(value) ? 1 : 0);
+                if (in.available() == 0) {  // Flush once per batch of pipelined requests
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // EOFException when the client is done, or a broken connection - either way the connection is over
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        ServerSocket socket = server;
+        if (socket != null) {
+            socket.close();
+        }
+        handlers.shutdownNow();
+        sorter.shutdownNow();
+    }
+
+    /**
+     * Run the service under load and print the lookup latencies
+     * @param args - the options in the class comment
+     * @throws Exception if the service cannot listen or a client fails
+     */
+    public static void main(String[] args) throws Exception {
+        int size = 1_000_000;
+        int clients = 256;
+        int pipeline = 1;
+        int queries = 200_000;
+        int updates = 10_000;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--size": size = Integer.parseInt(args[i + 1]); break;
+                case "--clients": clients = Integer.parseInt(args[i + 1]); break;
+                case "--pipeline": pipeline = Integer.parseInt(args[i + 1]); break;
+                case "--queries": queries = Integer.parseInt(args[i + 1]); break;
+                case "--updates": updates = Integer.parseInt(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        if (clients < 1 || pipeline < 1) {
+            throw new IllegalArgumentException("--clients and --pipeline must be at least 1");
+        }
+        int bound = Integer.MAX_VALUE;
+        try (SnapshotSearchService service = new SnapshotSearchService(
+                Workload.generate(Workload.Distribution.UNIFORM, size, bound, 1))) {
+            int port = service.listen(0);
+
+            // Keep merging in batches of updates for as long as the clients run
+            AtomicBoolean running = new AtomicBoolean(true);
+            int batch = updates;
+            Thread updater = new Thread(() -> {
+                long seed = 2;
+                while (running.get()) {
+                    service.addAll(Workload.generate(Workload.Distribution.UNIFORM, batch, bound, seed++)).join();
+                }
+            }, "load-updater");
+            updater.setDaemon(true);
+
+            long start = System.nanoTime();
+            updater.start();
+            long[] latencies = runLoad(port, clients, pipeline, queries, bound, 3);
+            long elapsed = System.nanoTime() - start;
+            running.set(false);
+            updater.join();
+
+            Arrays.sort(latencies);
+            System.out.printf("%d lookups from %d clients on %s threads in %.2f s (%.0f lookups/s)%n",
+                    latencies.length, clients, handlerThreads(), elapsed / 1e9, latencies.length / (elapsed / 1e9));
+            System.out.printf("Each client kept up to %d lookup(s) in flight - at most %d at once over all clients%n",
+                    pipeline, (long) clients * pipeline);
+            System.out.printf("Latency from request to reply: p50 %.1f us  p99 %.1f us  p99.9 %.1f us  max %.1f us%n",
+                    percentile(latencies, 0.50) / 1e3, percentile(latencies, 0.99) / 1e3,
+                    percentile(latencies, 0.999) / 1e3, latencies[latencies.length - 1] / 1e3);
+            System.out.printf("%d snapshots published, final snapshot holds %d values%n",
+                    service.publications(), service.snapshot().length);
+        }
+    }
+
+    /**
+     * The nearest-rank percentile of sorted values
+     */
+    static long percentile(long[] sorted, double fraction) {
+        return sorted[Math.max((int) Math.ceil(fraction * sorted.length) - 1, 0)];
+    }
+
+    /**
+     * The load generator: clients connect at once and each sends its share of the queries, keeping up to
+     * pipeline of them in flight - a new request goes out as soon as a reply comes back. The service answers
+     * in order, so each reply belongs to the oldest request outstanding, and a lookup is timed from its
+     * request to its reply. Query values are uniform over [0, bound).
+     *
+     * @param port The port of the service
+     * @param clients The number of concurrent connections
+     * @param pipeline The most requests a connection has in flight
+     * @param queries The total number of lookups
+     * @param bound Values are drawn from [0, bound)
+     * @param seed The seed of the query values
+     * @return The latency of every lookup in nanoseconds, in no particular order
+     * @throws Exception if a client fails
+     */
+    static long[] runLoad(int port, int clients, int pipeline, int queries, int bound, long seed) throws Exception {
+        long[] latencies = new long[queries];
+        ExecutorService executor = newHandlerExecutor();
+        try {
+            List<Future<?>> pending = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                int from = (int) ((long) queries * c / clients);
+                int to = (int) ((long) queries * (c + 1) / clients);
+                SplittableRandom random = new SplittableRandom(seed + c);
+                pending.add(executor.submit(() -> {
+                    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+                         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                         DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+                        socket.setTcpNoDelay(true);
+                        int sent = from;
+                        for (int q = from; q < to; q++) {
+                            // Top the pipeline up, then wait for the reply to the oldest request
+                            while (sent < to && sent - q < pipeline) {
+                                latencies[sent++] = System.nanoTime();
+                                out.writeInt(random.nextInt(bound));
+                            }
+                            out.flush();
+                            in.readByte();
+                            latencies[q] = System.nanoTime() - latencies[q];
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : pending) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return latencies;
+    }
+}
@@ -15,20 +15,43 @@
  * Sort Algorithm Identification
  * Sort Algorithm   Algorithm Name             Big O (time) Big O (space)
  * -----------------------------------------------------------
- * aSort            non-recursive Quicksort    O(N^2)       O(log N)
+ * aSort            non-recursive Quicksort    O(N log N)   O(log N)
  * bSort            Selection Sort             O(N^2)       O(1)
  * cSort            Insertion Sort             O(N^2)       O(1)
- * dSort            Merge Sort                 O(N log N)   O(N)
+ * dSort            Natural Merge Sort         O(N log N)   O(N)
+ * dSortInPlace     In-place Merge Sort        O(N log N)   O(sqrt N)
  * eSort            Bubble Sort                O(N log N)   O(log N)
  * fSort            Shell Sort                 O(N log N)   O(log N)
- * gSort            Radix Sort                 O(N + K)     O(N + K)
+ * gSort            LSD Radix Sort             O(N)         O(N)
  *
  *
  * @author Sukhmanjeet Singh, Student ID 000838215
  */
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntConsumer;
 
 /**
  * This class contains the main method to compare the sorting algorithms and the search algorithms
@@ -42,6 +65,8 @@ public class Main {
     // Add counters for comparisons
     static long[] comparisonCounts = new long[7]; // One for each sorting method
 
+    static final long DEFAULT_SEED = 838215L; // Seed of the generated arrays when none is given
+
     /**
      * Method to print the results for a given array size
      *
@@ -64,35 +89,32 @@ public class Main {
 
     /**
      * Compare the search algorithms
+     * The cost model measures the cost of sorting as well as the cost of each kind of search,
+     * so it can say after how many searches sorting the data first pays for itself
+     *
+     * @param seed The seed of the data and the queries
      */
-    private static void compareSearchAlgorithms() {
+    private static void compareSearchAlgorithms(long seed) {
         int arraySize = 100000;
-        int[] unsortedArray = HelperClass.generateRandomArray(arraySize, 1000);
-        int[] sortedArray = HelperClass.copyArray(unsortedArray);
+        SearchCostModel model = SearchCostModel.measure(arraySize, 1000, seed);
 
-        // Use Radix Sort to sort the array
-        HelperClass.gSort(sortedArray);
-
-        // Perform linear and binary searches
-        long linearSearchTime = (long) HelperClass.execTime(() -> HelperClass.linearSearch(unsortedArray, -1));
-        long binarySearchTime = (long) HelperClass.execTime(() -> HelperClass.binarySearch(sortedArray, -1));
-        System.out.printf("For array size of %d:%n", arraySize);
-        System.out.printf("Linear search took %d ns%n", linearSearchTime);
-        System.out.printf("Binary search took %d ns%n", binarySearchTime);
+        System.out.printf("For array size of %d (seed %d):%n", arraySize, seed);
+        System.out.printf("Sorting and indexing took %.0f ns%n", model.sortNanos);
+        System.out.printf("Linear search took %.1f ns%n", model.scanNanos);
+        System.out.printf("Index probe took %.1f ns%n", model.probeNanos);  // A SortedIntIndex search, not binarySearch
 
         // Determine the number of linear searches that would justify sorting the data first
-        int numberOfSearches = 1000;
-        long timeSaved = linearSearchTime * numberOfSearches - binarySearchTime * numberOfSearches;
-        if (timeSaved > 0) { // If time saved is positive
-            System.out.printf("Number of Linear Searches needed to justify sorting: %d%n", numberOfSearches);
-        } else {  // If time saved is negative
+        long numberOfSearches = model.breakEvenQueries(arraySize);
+        if (numberOfSearches == Long.MAX_VALUE) { // Linear search is never slower
+            System.out.println("Number of Linear Searches needed to justify sorting: never");
+        } else {
             System.out.printf("Number of Linear Searches needed to justify sorting: %d%n", numberOfSearches);
         }
     }
 
     /**
      * Main method
-     * @param args
+     * @param args - optional seed for the generated arrays, so a run can be repeated
      * @throws Exception
      */
     public static void main(String[] args) throws Exception {
@@ -103,56 +125,33 @@ public class Main {
         final int RUNS = 5;
         final int MAX_ALGORITHM = 7;
         final int BOUND = 1000;
+        final long SEED = (args.length > 0) ? Long.parseLong(args[0]) : DEFAULT_SEED;
+        SortCounters counters = new SortCounters(); // Reused by every run to collect the sort's counts
+        System.out.println("Seed: " + SEED); // Pass it as the argument to run on the same arrays again
 
         for (int arraySize : SIZE_LIST) { // For each array size
-            int[] originalData = HelperClass.generateRandomArray(arraySize, BOUND); // Generate a random array
+            Arrays.fill(executionTimes, 0); // Each size is averaged on its own
+            Arrays.fill(comparisonCounts, 0);
+            // Generate a random array - the same seed gives the same array on every run and machine
+            int[] originalData = Workload.generate(Workload.Distribution.UNIFORM, arraySize, BOUND, SEED);
             for (int i = 0; i < RUNS; i++) {  // For each run
                 for (int j = 0; j < MAX_ALGORITHM; j++) {  // For each sorting method
-                    int[] tempArray;
-                    switch (j) {  // Perform the sorting method
-                        case 0: // Quicksort
-                            tempArray = HelperClass.copyArray(originalData);
-                            executionTimes[j] += (long) HelperClass.execTime(() -> HelperClass.aSort(tempArray));
-                            comparisonCounts[j] += HelperClass.aSort(tempArray);
-                            break;
-                        case 1: // Selection Sort
-                            tempArray = HelperClass.copyArray(originalData);
-                            executionTimes[j] += (long) HelperClass.execTime(() -> HelperClass.bSort(tempArray));
-                            comparisonCounts[j] += HelperClass.bSort(tempArray);
-                            break;
-                        case 2: // Insertion Sort
-                            tempArray = HelperClass.copyArray(originalData);
-                            executionTimes[j] += (long) HelperClass.execTime(() -> HelperClass.cSort(tempArray));
-                            comparisonCounts[j] += HelperClass.cSort(tempArray);
-                            break;
-                        case 3: // Merge Sort
-                            tempArray = HelperClass.copyArray(originalData);
-                            executionTimes[j] += (long) HelperClass.execTime(() -> HelperClass.dSort(tempArray));
-                            comparisonCounts[j] += HelperClass.dSort(tempArray);
-                            break;
-                        case 4: // Bubble Sort
-                            tempArray = HelperClass.copyArray(originalData);
-                            executionTimes[j] += (long) HelperClass.execTime(() -> HelperClass.eSort(tempArray));
-                            comparisonCounts[j] += HelperClass.eSort(tempArray);
-                            break;
-                        case 5: // Shell Sort
-                            tempArray = HelperClass.copyArray(originalData);
-                            executionTimes[j] += (long) HelperClass.execTime(() -> HelperClass.fSort(tempArray));
-                            comparisonCounts[j] += HelperClass.fSort(tempArray);
-                            break;
-                        case 6: // Radix Sort
-                            tempArray = HelperClass.copyArray(originalData);
-                            executionTimes[j] += (long) HelperClass.execTime(() -> HelperClass.gSort(tempArray));
-                            comparisonCounts[j] += HelperClass.gSort(tempArray);
-                            break;
-                    }
+                    // The timed run reports to NOOP so counting does not add to the time
+                    int[] tempArray = HelperClass.copyArray(originalData);
+                    char sortName = (char) ('a' + j);
+                    executionTimes[j] += (long) HelperClass.execTime(() -> HelperClass.sort(sortName, tempArray, SortMetrics.NOOP));
+                    // A separate, untimed run on the same input collects the comparison count
+                    int[] countedArray = HelperClass.copyArray(originalData);
+                    counters.reset();
+                    HelperClass.sort(sortName, countedArray, counters);
+                    comparisonCounts[j] += counters.comparisons;
                 }
             }
             printResults(arraySize); // Print the results for the current array size
         }
 
         // Part 2 - Compare search algorithms
-        compareSearchAlgorithms();
+        compareSearchAlgorithms(SEED);
     }
 }
 
@@ -167,8 +166,6 @@ public class Main {
  */
 class HelperClass {
 
-    static long qSortCompares = 0;  // Left in for comparison purposes only
-
     /**
      * Method to copy an array
      *
@@ -179,6 +176,36 @@ class HelperClass {
         return Arrays.copyOf(array, array.length);
     }
 
+    /**
+     * Method to copy a long array
+     *
+     * @param array the array to copy
+     * @return the copied array
+     */
+    public static long[] copyArray(long[] array) {
+        return Arrays.copyOf(array, array.length);
+    }
+
+    /**
+     * Method to copy a double array
+     *
+     * @param array the array to copy
+     * @return the copied array
+     */
+    public static double[] copyArray(double[] array) {
+        return Arrays.copyOf(array, array.length);
+    }
+
+    /**
+     * Method to copy a short array
+     *
+     * @param array the array to copy
+     * @return the copied array
+     */
+    public static short[] copyArray(short[] array) {
+        return Arrays.copyOf(array, array.length);
+    }
+
     /**
      * Method to calculate the basic step time
      *
@@ -227,6 +254,40 @@ class HelperClass {
         return Arrays.stream(nums).average().orElseThrow();
     }
 
+    /**
+     * Method to run one of the sorting algorithms by its letter
+     *
+     * @param algorithm the letter of the sort to run, 'a' through 'g', or 'h' for dSortInPlace
+     * @param array the array to sort
+     * @return the number of comparisons made in the sort
+     */
+    public static long sort(char algorithm, int[] array) {
+        SortCounters counters = new SortCounters();
+        sort(algorithm, array, counters);
+        return counters.comparisons;
+    }
+
+    /**
+     * Method to run one of the sorting algorithms by its letter and report its work to a metrics sink
+     *
+     * @param algorithm the letter of the sort to run, 'a' through 'g', or 'h' for dSortInPlace
+     * @param array the array to sort
+     * @param metrics where the sort reports its comparisons, swaps, moves and allocations
+     */
+    public static void sort(char algorithm, int[] array, SortMetrics metrics) {
+        switch (algorithm) {
+            case 'a': aSort(array, metrics); break;
+            case 'b': bSort(array, metrics); break;
+            case 'c': cSort(array, metrics); break;
+            case 'd': dSort(array, metrics); break;
+            case 'e': eSort(array, metrics); break;
+            case 'f': fSort(array, metrics); break;
+            case 'g': gSort(array, metrics); break;
+            case 'h': dSortInPlace(array, metrics); break;
+            default: throw new IllegalArgumentException("Unknown sort algorithm: " + algorithm);
+        }
+    }
+
     /**
      * The swap method swaps the contents of two elements in an int array.
      *
@@ -242,6 +303,45 @@ class HelperClass {
         array[b] = temp;
     }
 
+    /**
+     * The swap method swaps the contents of two elements in a long array.
+     *
+     * @param array where elements are to be swapped.
+     * @param a The subscript of the first element.
+     * @param b The subscript of the second element.
+     */
+    public static void swap(long[] array, int a, int b) {
+        long temp = array[a];
+        array[a] = array[b];
+        array[b] = temp;
+    }
+
+    /**
+     * The swap method swaps the contents of two elements in a double array.
+     *
+     * @param array where elements are to be swapped.
+     * @param a The subscript of the first element.
+     * @param b The subscript of the second element.
+     */
+    public static void swap(double[] array, int a, int b) {
+        double temp = array[a];
+        array[a] = array[b];
+        array[b] = temp;
+    }
+
+    /**
+     * The swap method swaps the contents of two elements in a short array.
+     *
+     * @param array where elements are to be swapped.
+     * @param a The subscript of the first element.
+     * @param b The subscript of the second element.
+     */
+    public static void swap(short[] array, int a, int b) {
+        short temp = array[a];
+        array[a] = array[b];
+        array[b] = temp;
+    }
+
     /**
      * The eSort method uses the Bubble Sort algorithm to sort an int array.
      *
@@ -249,7 +349,21 @@ class HelperClass {
      * @return The number of comparisons made in the sort
      */
     public static long eSort(int[] array) {
-        int compCounter = 0; // Counter for comparisons
+        SortCounters counters = new SortCounters();
+        eSort(array, counters);
+        return counters.comparisons;
+    }
+
+    /**
+     * The eSort method uses the Bubble Sort algorithm to sort an int array.
+     *
+     * @param array The array to sort.
+     * @param metrics Where the sort reports its work
+     */
+    public static void eSort(int[] array, SortMetrics metrics) {
+        SortMetrics sink = SortTracing.beginSort("eSort", array.length, metrics);
+        long compCounter = 0; // Counter for comparisons
+        long swapCounter = 0; // Counter for swaps
         int lastPos;     // Position of last element to compare
         int index;       // Index of an element to compare
 
@@ -269,11 +383,14 @@ class HelperClass {
                     // Swap the two elements.
 
                     swap(array, index, index + 1);
+                    swapCounter++; // Increment the swap counter
                 }
                 compCounter++; // Increment the counter
             }
         }
-        return compCounter;
+        sink.comparisons(compCounter);
+        sink.swaps(swapCounter);
+        SortTracing.endSort(sink);
     }
 
     /** The cSort method uses the Insertion Sort algorithm to sort an int array.
@@ -282,14 +399,41 @@ class HelperClass {
      * @return The number of comparisons made in the sort
      */
     public static long cSort(int[] array) {
-        int compCounter = 0; // Counter for comparisons
+        SortCounters counters = new SortCounters();
+        cSort(array, counters);
+        return counters.comparisons;
+    }
+
+    /** The cSort method uses the Insertion Sort algorithm to sort an int array.
+     *
+     * @param array The array to sort.
+     * @param metrics Where the sort reports its work
+     */
+    public static void cSort(int[] array, SortMetrics metrics) {
+        SortMetrics sink = SortTracing.beginSort("cSort", array.length, metrics);
+        insertionSort(array, 0, array.length - 1, sink);
+        SortTracing.endSort(sink);
+    }
+
+    /**
+     * The insertionSort method sorts array[start..end] with Insertion Sort. It is the body of cSort,
+     * and aSort uses it to finish the small ranges left by partitioning.
+     *
+     * @param array The array to sort.
+     * @param start The starting subscript of the range to sort
+     * @param end The ending subscript of the range to sort
+     * @param metrics Where the sort reports its work
+     */
+    static void insertionSort(int[] array, int start, int end, SortMetrics metrics) {
+        long compCounter = 0; // Counter for comparisons
+        long moveCounter = 0; // Counter for element moves
         int unsortedValue;  // The first unsorted value
         int scan;           // Used to scan the array
 
         // The outer loop steps the index variable through
-        // each subscript in the array, starting at 1. The portion of
-        // the array containing element 0  by itself is already sorted.
-        for (int index = 1; index < array.length; index++) {
+        // each subscript in the range, starting at start + 1. The portion of
+        // the range containing element start by itself is already sorted.
+        for (int index = start + 1; index <= end; index++) {
             // The first element outside the sorted portion is
             // array[index]. Store the value of this element
             // in unsortedValue.
@@ -301,10 +445,11 @@ class HelperClass {
 
             // Move the first element in the still unsorted part
             // into its proper position within the sorted part.
-            while (scan > 0 && array[scan - 1] > unsortedValue) {
+            while (scan > start && array[scan - 1] > unsortedValue) {
                 array[scan] = array[scan - 1];  // Shift the larger value to the right
                 scan--;         // Move to the next element
                 compCounter++;  // Increment the counter
+                moveCounter++;  // Count the shift
             }
 
             compCounter++; // Increment the counter
@@ -312,8 +457,10 @@ class HelperClass {
             // Insert the unsorted value in its proper position
             // within the sorted subset.
             array[scan] = unsortedValue;
+            moveCounter++;
         }
-        return compCounter;
+        metrics.comparisons(compCounter);
+        metrics.moves(moveCounter);
     }
 
     /**
@@ -323,7 +470,20 @@ class HelperClass {
      * @return The number of comparisons made in the sort
      */
     public static long bSort(int[] array) {
-        int compCounter = 0; // Counter for comparisons
+        SortCounters counters = new SortCounters();
+        bSort(array, counters);
+        return counters.comparisons;
+    }
+
+    /**
+     * The bSort method uses the Selection Sort algorithm to sort an int array.
+     *
+     * @param array The array to sort.
+     * @param metrics Where the sort reports its work
+     */
+    public static void bSort(int[] array, SortMetrics metrics) {
+        SortMetrics sink = SortTracing.beginSort("bSort", array.length, metrics);
+        long compCounter = 0; // Counter for comparisons
         int startScan;   // Starting position of the scan
         int index;       // To hold a subscript value
         int minIndex;    // Element with smallest value in the scan
@@ -354,7 +514,9 @@ class HelperClass {
             array[minIndex] = array[startScan];
             array[startScan] = minValue;
         }
-        return compCounter;
+        sink.comparisons(compCounter);
+        sink.swaps(Math.max(array.length - 1, 0)); // One swap per pass
+        SortTracing.endSort(sink);
     }
 
     /**
@@ -364,7 +526,21 @@ class HelperClass {
      * @return The number of comparisons made in the sort
      */
     public static long fSort(int array[]) {
-        int compCounter = 0; // Counter for comparisons
+        SortCounters counters = new SortCounters();
+        fSort(array, counters);
+        return counters.comparisons;
+    }
+
+    /**
+     * The fSort method uses the Shell Sort algorithm to sort an int array.
+     *
+     * @param array The array to sort.
+     * @param metrics Where the sort reports its work
+     */
+    public static void fSort(int array[], SortMetrics metrics) {
+        SortMetrics sink = SortTracing.beginSort("fSort", array.length, metrics);
+        long compCounter = 0; // Counter for comparisons
+        long moveCounter = 0; // Counter for element moves
         int n = array.length;
 
         for (int gap = n / 2; gap > 0; gap /= 2) {
@@ -375,12 +551,16 @@ class HelperClass {
                     array[j] = array[j - gap];  // Shift the larger value to the right
                     j -= gap;
                     compCounter++; // Increment the counter
+                    moveCounter++;
                 }
                 compCounter++; // Increment the counter even if the while loop is not entered
                 array[j] = key;  // Insert the unsorted value in its proper position
+                moveCounter++;
             }
         }
-        return compCounter;
+        sink.comparisons(compCounter);
+        sink.moves(moveCounter);
+        SortTracing.endSort(sink);
     }
 
     /**
@@ -390,33 +570,146 @@ class HelperClass {
      * @return The number of comparisons made in the sort
      */
     public static long gSort(int array[]) {
-        int compCounter = 0; // Counter for comparisons
-        int count = 0;
+        SortCounters counters = new SortCounters();
+        gSort(array, counters);
+        return counters.comparisons;
+    }
 
-        int min = array[0];
-        int max = array[0];
-        for (int i = 1; i < array.length; i++) {
-            if (array[i] < min) // Find the minimum value
-                min = array[i];
-            else if (array[i] > max)  // Find the maximum value
-                max = array[i];
+    /**
+     * The gSort method uses an LSD Radix Sort to sort an int array.
+     * Large arrays are sorted in parallel on the common pool.
+     *
+     * @param array The array to sort.
+     * @param metrics Where the sort reports its work
+     */
+    public static void gSort(int array[], SortMetrics metrics) {
+        gSort(array, ForkJoinPool.commonPool(), metrics);
+    }
+
+    /**
+     * The gSort method uses an LSD Radix Sort to sort an int array, building its
+     * histograms and scattering in parallel on the given pool when the array is large.
+     *
+     * @param array The array to sort.
+     * @param pool The pool to run the parallel passes on - its parallelism is the core budget of the sort
+     * @param metrics Where the sort reports its work
+     */
+    public static void gSort(int array[], ForkJoinPool pool, SortMetrics metrics) {
+        SortMetrics sink = SortTracing.beginSort("gSort", array.length, metrics);
+        RadixSort.sort(array, pool, sink);
+        SortTracing.endSort(sink);
+    }
+
+    /**
+     * The gSort method uses an LSD Radix Sort to sort a long array.
+     *
+     * @param array The array to sort.
+     * @param metrics Where the sort reports its work
+     */
+    public static void gSort(long array[], SortMetrics metrics) {
+        long[] buffer = new long[array.length];
+        metrics.allocated(8L * buffer.length);
+        LongRadixSort.sort(array, null, buffer, null, metrics);
+    }
 
-            compCounter += 2; // Count comparisons when updating the min and max
+    /**
+     * The gSort method uses an LSD Radix Sort to sort a double array.
+     * The order matches Arrays.sort(double[]): -0.0 sorts before 0.0 and every NaN sorts last.
+     *
+     * @param array The array to sort.
+     * @param metrics Where the sort reports its work
+     */
+    public static void gSort(double array[], SortMetrics metrics) {
+        int n = array.length;
+        long[] keys = new long[n];
+        long[] buffer = new long[n];
+        metrics.allocated(16L * n);
+        for (int i = 0; i < n; i++) {
+            keys[i] = LongRadixSort.sortableBits(array[i]);
         }
-        int b[] = new int[max - min + 1];
-        for (int i = 0; i < array.length; i++) {
-            b[array[i] - min]++;
-            compCounter++; // Count comparisons in array indexing
+        LongRadixSort.sort(keys, null, buffer, null, metrics);
+        for (int i = 0; i < n; i++) {
+            array[i] = LongRadixSort.fromSortableBits(keys[i]);
         }
+        metrics.moves(2L * n);
+    }
 
+    /**
+     * The gSort method uses a Counting Sort over all 65536 short values to sort a short array.
+     *
+     * @param array The array to sort.
+     * @param metrics Where the sort reports its work
+     */
+    public static void gSort(short array[], SortMetrics metrics) {
+        int[] b = new int[1 << 16];
+        metrics.allocated(4L * b.length);
+        for (short value : array) {
+            b[value - Short.MIN_VALUE]++;
+        }
+        int count = 0;
         for (int i = 0; i < b.length; i++) {
             for (int j = 0; j < b[i]; j++) {
-                array[count++] = i + min;
-                compCounter++; // Count comparisons when updating the array
+                array[count++] = (short) (i + Short.MIN_VALUE);
             }
         }
+        metrics.moves(count);
+    }
 
-        return compCounter;
+    /**
+     * The sortIndex method reorders an array of row ids so their keys are in ascending order.
+     * The sort is stable - rows with equal keys keep their order.
+     *
+     * @param rowIds The row ids to reorder, each an index into keys
+     * @param keys The key column
+     * @param metrics Where the sort reports its work
+     */
+    public static void sortIndex(int[] rowIds, long[] keys, SortMetrics metrics) {
+        long[] rowKeys = new long[rowIds.length];
+        metrics.allocated(8L * rowKeys.length);
+        for (int i = 0; i < rowIds.length; i++) {
+            rowKeys[i] = keys[rowIds[i]];
+        }
+        LongRadixSort.sortWithIds(rowKeys, rowIds, metrics);
+    }
+
+    /**
+     * The sortIndex method reorders an array of row ids so their keys are in ascending order.
+     * The sort is stable - rows with equal keys keep their order.
+     *
+     * @param rowIds The row ids to reorder, each an index into keys
+     * @param keys The key column
+     * @param metrics Where the sort reports its work
+     */
+    public static void sortIndex(int[] rowIds, int[] keys, SortMetrics metrics) {
+        long[] rowKeys = new long[rowIds.length];
+        metrics.allocated(8L * rowKeys.length);
+        int min = Integer.MAX_VALUE;
+        for (int rowId : rowIds) {
+            min = Math.min(min, keys[rowId]);
+        }
+        for (int i = 0; i < rowIds.length; i++) {
+            // Offsets from the smallest key keep the order and fit in 32 bits whatever the signs, so the
+            // top four digits are the same for every key and the radix skips them
+            rowKeys[i] = (long) keys[rowIds[i]] - min;
+        }
+        LongRadixSort.sortWithIds(rowKeys, rowIds, metrics);
+    }
+
+    /**
+     * The sortIndex method reorders an array of row ids so their keys are in ascending order,
+     * in the same order as Arrays.sort(double[]). The sort is stable - rows with equal keys keep their order.
+     *
+     * @param rowIds The row ids to reorder, each an index into keys
+     * @param keys The key column
+     * @param metrics Where the sort reports its work
+     */
+    public static void sortIndex(int[] rowIds, double[] keys, SortMetrics metrics) {
+        long[] rowKeys = new long[rowIds.length];
+        metrics.allocated(8L * rowKeys.length);
+        for (int i = 0; i < rowIds.length; i++) {
+            rowKeys[i] = LongRadixSort.sortableBits(keys[rowIds[i]]);
+        }
+        LongRadixSort.sortWithIds(rowKeys, rowIds, metrics);
     }
 
 
@@ -427,230 +720,515 @@ class HelperClass {
      * @return the number of comparisons made in the sort
      */
     public static long aSort(int array[]) {
-        qSortCompares = 0;
-        return doASort(array, 0, array.length - 1, 0);
+        SortCounters counters = new SortCounters();
+        aSort(array, counters);
+        return counters.comparisons;
+    }
+
+    /**
+     * The non-recursive Quicksort - manages first call
+     *
+     * @param array an unsorted array that will be sorted upon method completion
+     * @param metrics Where the sort reports its work
+     */
+    public static void aSort(int array[], SortMetrics metrics) {
+        SortMetrics sink = SortTracing.beginSort("aSort", array.length, metrics);
+        doASort(array, 0, array.length - 1, sink);
+        SortTracing.endSort(sink);
     }
 
+    static final int INSERTION_CUTOFF = 24;  // Ranges this small are finished with insertionSort
+    static final int NINTHER_CUTOFF = 128;   // Ranges this large pick the pivot with Tukey's ninther
+
     /**
-     * The doQuickSort method uses the QuickSort algorithm to sort an int array.
+     * The doASort method uses an introsort-style Quicksort to sort array[start..end] without recursion.
+     * Pending ranges are kept on an explicit stack. After each partition the larger side is pushed
+     * and the smaller side is sorted next, so the stack never holds more than log2(N) ranges.
+     * Ranges of INSERTION_CUTOFF elements or fewer are finished with insertionSort, and a range that is
+     * still being partitioned after 2 * log2(N) levels is handed to heapSort, so the worst case is O(N log N).
      *
      * @param array The array to sort.
      * @param start The starting subscript of the list to sort
      * @param end The ending subscript of the list to sort
-     * @param numberOfCompares The number of comparisons made in the sort (set to 0 on initial call)
-     * @return The number of comparisons made in the sort
+     * @param metrics Where the sort reports its work
      */
-    private static long doASort(int array[], int start, int end, long numberOfCompares) {
-        int pivotPoint;
+    static void doASort(int array[], int start, int end, SortMetrics metrics) {
+        if (start >= end) {
+            return;
+        }
+        int depthLimit = 2 * (31 - Integer.numberOfLeadingZeros(end - start + 1));
+        int[] stack = new int[3 * 32];  // start, end and remaining depth of each pending range
+        int top = 0;
+        stack[top++] = start;
+        stack[top++] = end;
+        stack[top++] = depthLimit;
+
+        while (top > 0) {
+            int depth = stack[--top];
+            end = stack[--top];
+            start = stack[--top];
+
+            while (end - start >= INSERTION_CUTOFF) {
+                if (depth == 0) {  // Too many bad pivots - heapsort the rest of this range
+                    heapSort(array, start, end, metrics);
+                    break;
+                }
+                depth--;
 
-        if (start < end) {
-            // Get the pivot point.
-            pivotPoint = part1(array, start, end, numberOfCompares);
-            // Note - only one +/=
-            numberOfCompares += (end - start);
-            // Sort the first sub list.
-            numberOfCompares = doASort(array, start, pivotPoint - 1, numberOfCompares);
+                // Partition three ways; everything between the bounds equals the pivot and is done
+                long bounds = part1(array, start, end, metrics);
+                int endOfLeftList = (int) (bounds >>> 32) - 1;
+                int startOfRightList = (int) bounds + 1;
 
-            // Sort the second sub list.
-            numberOfCompares = doASort(array, pivotPoint + 1, end, numberOfCompares);
+                // Push the larger side and keep going on the smaller one
+                if (endOfLeftList - start > end - startOfRightList) {
+                    stack[top++] = start;
+                    stack[top++] = endOfLeftList;
+                    stack[top++] = depth;
+                    start = startOfRightList;
+                } else {
+                    stack[top++] = startOfRightList;
+                    stack[top++] = end;
+                    stack[top++] = depth;
+                    end = endOfLeftList;
+                }
+            }
+            if (end - start < INSERTION_CUTOFF) {
+                insertionSort(array, start, end, metrics);
+            }
         }
-        return numberOfCompares;
     }
 
     /**
      * The partition method selects a pivot value in an array and arranges the
-     * array into two sub lists. All the values less than the pivot will be
-     * stored in the left sub list and all the values greater than or equal to
-     * the pivot will be stored in the right sub list.
+     * array into three sub lists (the Dutch national flag). All the values less than
+     * the pivot are stored in the left sub list, all the values equal to the pivot
+     * in the middle, and all the values greater than the pivot in the right sub list.
+     * The equal values never need sorting again, so input with many duplicates
+     * is sorted in close to linear time.
      *
      * @param array The array to partition.
      * @param start The starting subscript of the area to partition.
      * @param end The ending subscript of the area to partition.
-     * @return The subscript of the pivot value.
+     * @param metrics Where the partition reports its comparisons and swaps
+     * @return The subscripts of the first and the last value equal to the pivot,
+     *         packed as (first << 32) | last
      */
-    private static int part1(int array[], int start, int end, long numberOfCompares) {
-        int pivotValue;    // To hold the pivot value
-        int endOfLeftList; // Last element in the left sub list.
-        int mid;           // To hold the mid-point subscript
-
-        // see http://www.cs.cmu.edu/~fp/courses/15122-s11/lectures/08-qsort.pdf
-        // for discussion of middle point - This improves the almost sorted cases
-        // of using quicksort
-        // Find the subscript of the middle element.
-        // This will be our pivot value.
-        mid = (start + end) / 2;
-        // mid = start;
+    static long part1(int array[], int start, int end, SortMetrics metrics) {
+        long compCounter = 0; // Counter for comparisons
+        long swapCounter = 0; // Counter for swaps
+        int pivotValue;       // To hold the pivot value
 
-        // Swap the middle element with the first element.
-        // This moves the pivot value to the start of
-        // the list.
-        swap(array, start, mid);
-
-        // Save the pivot value for comparisons.
-        pivotValue = array[start];
-
-        // For now, the end of the left sub list is
-        // the first element.
-        endOfLeftList = start;
+        // Pick the pivot - the median of three for small ranges and the
+        // median of three medians (Tukey's ninther) for large ones.
+        // Both resist the sorted and reversed inputs that break a fixed pivot.
+        int mid = start + (end - start) / 2;
+        int pivotIndex;
+        if (end - start + 1 >= NINTHER_CUTOFF) {
+            int step = (end - start + 1) / 8;
+            pivotIndex = median3(array,
+                    median3(array, start, start + step, start + 2 * step),
+                    median3(array, mid - step, mid, mid + step),
+                    median3(array, end - 2 * step, end - step, end));
+            compCounter += 12;
+        } else {
+            pivotIndex = median3(array, start, mid, end);
+            compCounter += 3;
+        }
+        pivotValue = array[pivotIndex];
 
-        // Scan the entire list and move any values that
-        // are less than the pivot value to the left
-        // sub list.
-        for (int scan = start + 1; scan <= end; scan++) {
-            qSortCompares++;
-            if (array[scan] < pivotValue) {
-                endOfLeftList++;
-                swap(array, endOfLeftList, scan);
+        // Everything before lessEnd is less than the pivot, everything after
+        // greaterStart is greater, and [lessEnd, scan) equals the pivot.
+        int lessEnd = start;
+        int scan = start;
+        int greaterStart = end;
+        while (scan <= greaterStart) {
+            int value = array[scan];
+            if (value < pivotValue) {
+                swap(array, lessEnd, scan);
+                lessEnd++;
+                scan++;
+                swapCounter++;
+                compCounter++;
+            } else if (value > pivotValue) {
+                swap(array, scan, greaterStart);
+                greaterStart--;
+                swapCounter++;
+                compCounter += 2;
+            } else {
+                scan++;
+                compCounter += 2;
             }
-            numberOfCompares++;
         }
 
-        // Move the pivot value to end of the
-        // left sub list.
-        swap(array, start, endOfLeftList);
+        metrics.comparisons(compCounter);
+        metrics.swaps(swapCounter);
 
-        // Return the subscript of the pivot value.
-        return endOfLeftList;
+        // Return the bounds of the run equal to the pivot
+        return ((long) lessEnd << 32) | (greaterStart & 0xFFFFFFFFL);
     }
 
     /**
-     * The dSort method uses the Merge Sort algorithm to sort an int array.
+     * Find which of three elements holds the median value
      *
-     * @param inputArray The array to sort.
-     * @return The number of comparisons made in the sort
+     * @param array The array holding the elements
+     * @param a The subscript of the first element
+     * @param b The subscript of the second element
+     * @param c The subscript of the third element
+     * @return The subscript of the median element
      */
-    public static long dSort(int inputArray[]) {
-        int length = inputArray.length;
-        // Create array only once for merging
-        int[] workingArray = new int[inputArray.length];
-        long count = 0;
-        count = doDSort(inputArray, workingArray, 0, length - 1, count); // Call the recursive method
-        return count;
+    private static int median3(int[] array, int a, int b, int c) {
+        if (array[a] < array[b]) {
+            if (array[b] < array[c]) return b;
+            return (array[a] < array[c]) ? c : a;
+        }
+        if (array[a] < array[c]) return a;
+        return (array[b] < array[c]) ? c : b;
     }
 
     /**
-     * The doDSort method uses the Merge Sort algorithm to sort an int array.
+     * The heapSort method sorts array[start..end] with Heap Sort. aSort falls back to it
+     * when partitioning goes too deep, which bounds its worst case at O(N log N).
      *
-     * @param inputArray The array to sort.
-     * @param workingArray The array to use for working storage
-     * @param lowerIndex The starting subscript of the list to sort
-     * @param higherIndex The ending subscript of the list to sort
-     * @param count The number of comparisons made in the sort (set to 0 on initial call)
-     * @return The number of comparisons made in the sort
+     * @param array The array to sort.
+     * @param start The starting subscript of the range to sort
+     * @param end The ending subscript of the range to sort
+     * @param metrics Where the sort reports its work
      */
-    private static long doDSort(int[] inputArray, int[] workingArray, int lowerIndex, int higherIndex, long count) {
-        if (lowerIndex < higherIndex) {  // If the lower index is less than the higher index
-            int middle = lowerIndex + (higherIndex - lowerIndex) / 2;
-            // Below step sorts the left side of the array
-            count = doDSort(inputArray, workingArray, lowerIndex, middle, count+1);
-            // Below step sorts the right side of the array
-            count = doDSort(inputArray, workingArray, middle + 1, higherIndex, count+1);
-            // Now merge both sides
-            count = part2(inputArray, workingArray, lowerIndex, middle, higherIndex, count);
+    static void heapSort(int[] array, int start, int end, SortMetrics metrics) {
+        int size = end - start + 1;
+        long compCounter = 0;
+
+        // Build a max heap - the children of heap node i are nodes 2i + 1 and 2i + 2
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            compCounter += siftDown(array, start, i, size);
         }
-        return count;
+        // Move the largest value to the end of the range and restore the heap on what is left
+        for (int last = size - 1; last > 0; last--) {
+            swap(array, start, start + last);
+            compCounter += siftDown(array, start, 0, last);
+        }
+        metrics.comparisons(compCounter);
+        metrics.swaps(Math.max(size - 1, 0));
     }
 
     /**
-     * The part2 method merges two sub arrays of inputArray[].
+     * Move heap node i down until it is not smaller than its children
      *
-     * @param inputArray The array to sort.
-     * @param workingArray The array to use for working storage
-     * @param lowerIndex The starting subscript of the list to sort
-     * @param middle The middle of the array
-     * @param higherIndex The ending subscript of the list to sort
-     * @param count The number of comparisons made in the sort
-     * @return The number of comparisons made in the sort
+     * @param array The array holding the heap
+     * @param offset The subscript of the root of the heap
+     * @param i The heap node to move down
+     * @param size The number of nodes in the heap
+     * @return The number of comparisons made
      */
-    private static long part2(int[] inputArray, int[] workingArray, int lowerIndex, int middle, int higherIndex, long count) {
-
-        for (int i = lowerIndex; i <= higherIndex; i++) { // Copy both parts into the workingArray
-            workingArray[i] = inputArray[i];  // Copy the array to the working array
-        }
-        int i1 = lowerIndex;
-        int i2 = middle + 1;
-        int newIndex = lowerIndex;
-        while (i1 <= middle && i2 <= higherIndex) {     // Merge the two halves
-            if (workingArray[i1] <= workingArray[i2]) { // If the left half is less than the right half
-                inputArray[newIndex] = workingArray[i1];
-                i1++;
-            } else {  // If the right half is less than the left half
-                inputArray[newIndex] = workingArray[i2];
-                i2++;
+    private static long siftDown(int[] array, int offset, int i, int size) {
+        long compCounter = 0;
+        int value = array[offset + i];
+        int child;
+        while ((child = 2 * i + 1) < size) {
+            if (child + 1 < size && array[offset + child + 1] > array[offset + child]) {
+                child++;  // Take the larger child
             }
-            count++;
-            newIndex++;
-        }
-        while (i1 <= middle) {   // If there are any remaining elements in the left half
-            inputArray[newIndex] = workingArray[i1];  // Copy the remaining elements
-            newIndex++;
-            i1++;
-            count++;
+            compCounter += 2;
+            if (array[offset + child] <= value) {
+                break;
+            }
+            array[offset + i] = array[offset + child];  // Move the child up
+            i = child;
         }
-        return count;  // Return the number of comparisons made
+        array[offset + i] = value;
+        return compCounter;
     }
 
     /**
-     * A demonstration of recursive counting in a Binary Search
-     * @param array - array to search
-     * @param low - the low index - set to 0 to search whiole array
-     * @param high - set to length of array to search whole array
-     * @param value - item to search for
-     * @param count - Used in recursion to accumulate the number of comparisons made (set to 0 on initial call)
-     * @return
+     * The select method finds the k-th smallest value of an array without sorting all of it.
+     *
+     * @param array The array to search - it is reordered
+     * @param k The rank to find, 0 for the smallest value
+     * @return The k-th smallest value
      */
-    private static int[] binarySearchR(int[] array, int low, int high, int value, int count)
-    {
-        int middle;     // Mid point of search
+    public static int select(int[] array, int k) {
+        return select(array, k, SortMetrics.NOOP);
+    }
 
-        // Test for the base case where the value is not found.
-        if (low > high)
-            return new int[] {-1,count};
+    /**
+     * The select method finds the k-th smallest value of an array with an introselect: the same three-way
+     * partition as aSort, but only the side holding rank k is kept. That is O(N) on average, and a range
+     * that is still being partitioned after 2 * log2(N) rounds is heapsorted, so the worst case is O(N log N).
+     * Afterwards array[k] holds the value, everything before it is not greater and everything after is not less.
+     *
+     * @param array The array to search - it is reordered
+     * @param k The rank to find, 0 for the smallest value
+     * @param metrics Where the partitioning reports its work
+     * @return The k-th smallest value
+     */
+    public static int select(int[] array, int k, SortMetrics metrics) {
+        if (k < 0 || k >= array.length) {
+            throw new IllegalArgumentException("Rank " + k + " is outside an array of length " + array.length);
+        }
+        int start = 0;
+        int end = array.length - 1;
+        int depth = 2 * (31 - Integer.numberOfLeadingZeros(array.length));
+        while (end - start >= INSERTION_CUTOFF) {
+            if (depth == 0) {  // Too many bad pivots - heapsort what is left
+                heapSort(array, start, end, metrics);
+                return array[k];
+            }
+            depth--;
 
-        // Calculate the middle position.
-        middle = (low + high) / 2;
+            long bounds = part1(array, start, end, metrics);
+            int firstEqual = (int) (bounds >>> 32);
+            int lastEqual = (int) bounds;
+            if (k < firstEqual) {
+                end = firstEqual - 1;
+            } else if (k > lastEqual) {
+                start = lastEqual + 1;
+            } else {
+                return array[k];  // Rank k falls among the values equal to the pivot
+            }
+        }
+        insertionSort(array, start, end, metrics);
+        return array[k];
+    }
 
-        // Search for the value.
-        if (array[middle] == value)
-            // Found match return the index
-            return new int[] {middle, count};
-        else if (value > array[middle])
-            // Recursive method call here (Upper half of remaining data)
-            return binarySearchR(array, middle + 1, high, value, count+1);
-        else
-            // Recursive method call here (Lower half of remaining data)
-            return binarySearchR(array, low, middle - 1, value, count+1);
+    /**
+     * The partialSort method sorts only the k smallest values of an array into array[0..k).
+     *
+     * @param array The array to sort - the values after the first k are left in no particular order
+     * @param k The number of values to sort
+     */
+    public static void partialSort(int[] array, int k) {
+        partialSort(array, k, SortMetrics.NOOP);
     }
 
     /**
-     * The linearSearch method uses the Linear Search algorithm to search for a value in an int array.
+     * The partialSort method sorts only the k smallest values of an array into array[0..k).
+     * It selects rank k - 1 to gather the k smallest values at the front and then sorts just those
+     * with aSort's introsort, which is O(N + K log K) instead of O(N log N).
      *
-     * @param array The array to search.
-     * @param value The value to search for.
-     * @return The index of the value in the array, or -1 if the value is not found
+     * @param array The array to sort - the values after the first k are left in no particular order
+     * @param k The number of values to sort
+     * @param metrics Where the sort reports its work
      */
-    public static int linearSearch(int[] array, int value) {
-        int index = 0;
-        // Continue to search the array until the value is found or the end of the array is reached
-        while (index < array.length && array[index] != value) {
-            index++;
+    public static void partialSort(int[] array, int k, SortMetrics metrics) {
+        if (k < 0 || k > array.length) {
+            throw new IllegalArgumentException("Cannot sort " + k + " values of an array of length " + array.length);
+        }
+        if (k == 0) {
+            return;
+        }
+        if (k == array.length) {
+            doASort(array, 0, k - 1, metrics);
+        } else {
+            select(array, k - 1, metrics);
+            doASort(array, 0, k - 2, metrics);  // array[k - 1] is already in place
         }
-        return (index == array.length) ? -1 : index; // Return the index of the value or -1 if the value is not found
     }
 
     /**
-     * The binarySearch method uses the Binary Search algorithm to search for a value in an int array.
+     * The dSort method uses the Merge Sort algorithm to sort an int array.
      *
-     * @param array The array to search.
-     * @param value The value to search for.
-     * @return The index of the value in the array, or -1 if the value is not found
+     * @param inputArray The array to sort.
+     * @return The number of comparisons made in the sort
      */
-    public static int binarySearch(int[] array, int value) {
+    public static long dSort(int inputArray[]) {
+        SortCounters counters = new SortCounters();
+        dSort(inputArray, counters);
+        return counters.comparisons;
+    }
+
+    /**
+     * The dSort method uses a natural Merge Sort to sort an int array. Runs that are already in
+     * order are found and merged as they are, so input that is mostly sorted costs close to N.
+     *
+     * @param inputArray The array to sort.
+     * @param metrics Where the sort reports its work
+     */
+    public static void dSort(int inputArray[], SortMetrics metrics) {
+        SortMetrics sink = SortTracing.beginSort("dSort", inputArray.length, metrics);
+        int length = inputArray.length;
+        // Create array only once for merging - a merge copies only the shorter run, at most half the array
+        int[] workingArray = new int[length / 2];
+        sink.allocated(4L * workingArray.length);
+        NaturalMergeSort.sort(inputArray, 0, length, workingArray, 0, sink);
+        SortTracing.endSort(sink);
+    }
+
+    /**
+     * The dSortInPlace method sorts an int array with a stable Merge Sort that works in place.
+     *
+     * @param inputArray The array to sort.
+     * @return The number of comparisons made in the sort
+     */
+    public static long dSortInPlace(int inputArray[]) {
+        SortCounters counters = new SortCounters();
+        dSortInPlace(inputArray, counters);
+        return counters.comparisons;
+    }
+
+    /**
+     * The dSortInPlace method sorts an int array with a stable Merge Sort that works in place,
+     * using a buffer of about the square root of the array length for the merges that fit in it.
+     *
+     * @param inputArray The array to sort.
+     * @param metrics Where the sort reports its work
+     */
+    public static void dSortInPlace(int inputArray[], SortMetrics metrics) {
+        dSortInPlace(inputArray, InPlaceMergeSort.defaultBufferSize(inputArray.length), metrics);
+    }
+
+    /**
+     * The dSortInPlace method sorts an int array with a stable Merge Sort that needs no working array
+     * the size of the input. Merges whose shorter run fits in the buffer go through it; larger ones are
+     * block merges, which move blocks of about the square root of the merge length through the buffer.
+     * Use this instead of dSort when the input is too large to hold twice.
+     *
+     * @param inputArray The array to sort.
+     * @param bufferSize The number of ints of extra storage the sort may use. A block merge needs a buffer
+     *                   of about the square root of the array length, so the buffer is never smaller.
+     * @param metrics Where the sort reports its work - the buffer and the block tags are the only allocations
+     */
+    public static void dSortInPlace(int inputArray[], int bufferSize, SortMetrics metrics) {
+        if (bufferSize < 0) {
+            throw new IllegalArgumentException("Negative buffer size: " + bufferSize);
+        }
+        SortMetrics sink = SortTracing.beginSort("dSortInPlace", inputArray.length, metrics);
+        // The buffer never needs to be larger than half the array
+        int length = inputArray.length;
+        int[] buffer = new int[Math.max(InPlaceMergeSort.defaultBufferSize(length), Math.min(bufferSize, length / 2))];
+        sink.allocated(4L * buffer.length);
+        InPlaceMergeSort.sort(inputArray, 0, inputArray.length, buffer, sink);
+        SortTracing.endSort(sink);
+    }
+
+    /**
+     * The dSortParallel method sorts an int array with a parallel Merge Sort on its own pool
+     * of the given size, so a caller can pin the sort to a fixed number of cores.
+     *
+     * @param inputArray The array to sort.
+     * @param parallelism The number of worker threads to use
+     */
+    public static void dSortParallel(int inputArray[], int parallelism) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            dSortParallel(inputArray, pool, ParallelMergeSort.DEFAULT_CUTOFF, SortMetrics.NOOP);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * The dSortParallel method uses a fork-join Merge Sort to sort an int array.
+     * Ranges above the cutoff are split across the pool and merged in parallel; ranges at or below it
+     * are sorted with the dSort engine. Only one workingArray the size of the input is allocated.
+     *
+     * @param inputArray The array to sort.
+     * @param pool The pool to run the sort on - its parallelism is the core budget of the sort
+     * @param cutoff The range size at or below which the sort and the merge run sequentially
+     * @param metrics Where the sort reports its work
+     */
+    public static void dSortParallel(int inputArray[], ForkJoinPool pool, int cutoff, SortMetrics metrics) {
+        SortMetrics sink = SortTracing.beginSort("dSortParallel", inputArray.length, metrics);
+        int[] workingArray = new int[inputArray.length];
+        sink.allocated(4L * workingArray.length);
+        ParallelMergeSort task = new ParallelMergeSort(inputArray, workingArray, 0, inputArray.length - 1,
+                false, Math.max(cutoff, 1));
+        pool.invoke(task);
+        sink.comparisons(task.counters.comparisons);
+        sink.moves(task.counters.moves);
+        SortTracing.endSort(sink);
+    }
+
+    /**
+     * A demonstration of recursive counting in a Binary Search
+     * @param array - array to search
+     * @param low - the low index - set to 0 to search whiole array
+     * @param high - set to length of array to search whole array
+     * @param value - item to search for
+     * @param count - Used in recursion to accumulate the number of comparisons made (set to 0 on initial call)
+     * @return
+     */
+    private static int[] binarySearchR(int[] array, int low, int high, int value, int count)
+    {
+        int middle;     // Mid point of search
+
+        // Test for the base case where the value is not found.
+        if (low > high)
+            return new int[] {-1,count};
+
+        // Calculate the middle position.
+        middle = (low + high) / 2;
+
+        // Search for the value.
+        if (array[middle] == value)
+            // Found match return the index
+            return new int[] {middle, count};
+        else if (value > array[middle])
+            // Recursive method call here (Upper half of remaining data)
+            return binarySearchR(array, middle + 1, high, value, count+1);
+        else
+            // Recursive method call here (Lower half of remaining data)
+            return binarySearchR(array, low, middle - 1, value, count+1);
+    }
+
+    /**
+     * The linearSearch method uses the Linear Search algorithm to search for a value in an int array.
+     *
+     * @param array The array to search.
+     * @param value The value to search for.
+     * @return The index of the value in the array, or -1 if the value is not found
+     */
+    public static int linearSearch(int[] array, int value) {
+        Object event = SortTracing.beginSearch("linearSearch", array.length);
+        int position;
+        if (ScanKernels.VECTORIZED) {  // jdk.incubator.vector is loaded - compare a whole vector per step
+            position = ScanKernels.linearSearch(array, value);
+        } else {
+            int index = 0;
+            // Continue to search the array until the value is found or the end of the array is reached
+            while (index < array.length && array[index] != value) {
+                index++;
+            }
+            position = (index == array.length) ? -1 : index;
+        }
+        SortTracing.endSearch(event, position < 0 ? array.length : position + 1, position);
+        return position; // Return the index of the value or -1 if the value is not found
+    }
+
+    /**
+     * The minMax method finds the smallest and largest value in an int array in one pass.
+     * Math.min and Math.max compile to conditional moves, so the loop has no data-dependent branch.
+     *
+     * @param array The array to scan
+     * @return The minimum and maximum packed as (min << 32) | (max & 0xFFFFFFFF) - for an empty array
+     *         Integer.MAX_VALUE and Integer.MIN_VALUE, so that any value updates both
+     */
+    public static long minMax(int[] array) {
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int i = 0; i < array.length; i++) {
+            min = Math.min(min, array[i]);
+            max = Math.max(max, array[i]);
+        }
+        return ((long) min << 32) | (max & 0xFFFFFFFFL);
+    }
+
+    /**
+     * The binarySearch method uses the Binary Search algorithm to search for a value in an int array.
+     *
+     * @param array The array to search.
+     * @param value The value to search for.
+     * @return The index of the value in the array, or -1 if the value is not found
+     */
+    public static int binarySearch(int[] array, int value) {
+        Object event = SortTracing.beginSearch("binarySearch", array.length);
         int low = 0;
         int high = array.length - 1;
         int middle;
         int position = -1;
+        int probes = 0;
         while (low <= high) { // While there is still data to search
+            probes++;
             middle = (low + high) / 2;     // Calculate the middle position
             if (array[middle] == value) {  // If the value is found
                 position = middle;
@@ -661,6 +1239,2973 @@ class HelperClass {
                 high = middle - 1;
             }
         }
+        SortTracing.endSearch(event, probes, position);
         return position; // Return the position of the value
     }
+
+    /**
+     * The linearSearch method uses the Linear Search algorithm to search for a value in a long array.
+     *
+     * @param array The array to search.
+     * @param value The value to search for.
+     * @return The index of the value in the array, or -1 if the value is not found
+     */
+    public static int linearSearch(long[] array, long value) {
+        for (int index = 0; index < array.length; index++) {
+            if (array[index] == value) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The linearSearch method uses the Linear Search algorithm to search for a value in a double array.
+     * Values match as in Double.equals, so NaN finds NaN and -0.0 does not find 0.0.
+     *
+     * @param array The array to search.
+     * @param value The value to search for.
+     * @return The index of the value in the array, or -1 if the value is not found
+     */
+    public static int linearSearch(double[] array, double value) {
+        long bits = Double.doubleToLongBits(value);
+        for (int index = 0; index < array.length; index++) {
+            if (Double.doubleToLongBits(array[index]) == bits) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The linearSearch method uses the Linear Search algorithm to search for a value in a short array.
+     *
+     * @param array The array to search.
+     * @param value The value to search for.
+     * @return The index of the value in the array, or -1 if the value is not found
+     */
+    public static int linearSearch(short[] array, short value) {
+        for (int index = 0; index < array.length; index++) {
+            if (array[index] == value) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The binarySearch method uses the Binary Search algorithm to search for a value in a sorted long array.
+     *
+     * @param array The array to search.
+     * @param value The value to search for.
+     * @return The index of the value in the array, or -1 if the value is not found
+     */
+    public static int binarySearch(long[] array, long value) {
+        int low = 0;
+        int high = array.length - 1;
+        while (low <= high) { // While there is still data to search
+            int middle = (low + high) >>> 1;
+            if (array[middle] == value) {
+                return middle;
+            } else if (array[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The binarySearch method uses the Binary Search algorithm to search for a value in a double array
+     * sorted like Arrays.sort(double[]). Values compare as in Double.compare, so NaN and -0.0 are found.
+     *
+     * @param array The array to search.
+     * @param value The value to search for.
+     * @return The index of the value in the array, or -1 if the value is not found
+     */
+    public static int binarySearch(double[] array, double value) {
+        long key = LongRadixSort.sortableBits(value);
+        int low = 0;
+        int high = array.length - 1;
+        while (low <= high) { // While there is still data to search
+            int middle = (low + high) >>> 1;
+            long middleKey = LongRadixSort.sortableBits(array[middle]);
+            if (middleKey == key) {
+                return middle;
+            } else if (middleKey < key) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The binarySearch method uses the Binary Search algorithm to search for a value in a sorted short array.
+     *
+     * @param array The array to search.
+     * @param value The value to search for.
+     * @return The index of the value in the array, or -1 if the value is not found
+     */
+    public static int binarySearch(short[] array, short value) {
+        int low = 0;
+        int high = array.length - 1;
+        while (low <= high) { // While there is still data to search
+            int middle = (low + high) >>> 1;
+            if (array[middle] == value) {
+                return middle;
+            } else if (array[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return -1;
+    }
+}
+
+/**
+ * A SortMetrics receives the work done by a sort - comparisons, swaps, element moves and buffer allocations.
+ * The sorts count into local variables and report once per sort or partition, so the sink is called rarely.
+ * Timed runs use NOOP, whose empty methods the JIT inlines away together with the counting that feeds them.
+ */
+interface SortMetrics {
+
+    /** A sink that ignores everything */
+    SortMetrics NOOP = new SortMetrics() {
+    };
+
+    /**
+     * Report comparisons between two elements
+     * @param count the number of comparisons
+     */
+    default void comparisons(long count) {
+    }
+
+    /**
+     * Report exchanges of two elements
+     * @param count the number of swaps
+     */
+    default void swaps(long count) {
+    }
+
+    /**
+     * Report single element writes that are not part of a swap, such as shifts and buffer copies
+     * @param count the number of moves
+     */
+    default void moves(long count) {
+    }
+
+    /**
+     * Report a working buffer allocated by the sort
+     * @param bytes the size of the buffer in bytes
+     */
+    default void allocated(long bytes) {
+    }
+}
+
+/**
+ * A SortMetrics that adds up everything reported to it. Not thread safe - use one per sorting thread.
+ */
+class SortCounters implements SortMetrics {
+    long comparisons;     // Comparisons between two elements
+    long swaps;           // Exchanges of two elements
+    long moves;           // Element writes outside of swaps
+    long allocatedBytes;  // Bytes of working storage allocated
+
+    @Override
+    public void comparisons(long count) {
+        comparisons += count;
+    }
+
+    @Override
+    public void swaps(long count) {
+        swaps += count;
+    }
+
+    @Override
+    public void moves(long count) {
+        moves += count;
+    }
+
+    @Override
+    public void allocated(long bytes) {
+        allocatedBytes += bytes;
+    }
+
+    /**
+     * Add the counts of another SortCounters to this one, used to combine the counts of parallel tasks
+     * @param other the counters to add
+     */
+    public void add(SortCounters other) {
+        comparisons += other.comparisons;
+        swaps += other.swaps;
+        moves += other.moves;
+        allocatedBytes += other.allocatedBytes;
+    }
+
+    /**
+     * Set every counter back to zero so the object can be reused for the next sort
+     */
+    public void reset() {
+        comparisons = 0;
+        swaps = 0;
+        moves = 0;
+        allocatedBytes = 0;
+    }
+}
+
+/**
+ * The fork-join task behind HelperClass.dSortParallel. Each task sorts inputArray[lowerIndex..higherIndex]
+ * and leaves the result in inputArray or, when intoWorking is set, in the same range of workingArray.
+ * The two halves are sorted into the other array, so a merge always reads one array and writes the
+ * other and nothing is copied back. Every task counts into its own SortCounters, which are added up
+ * as the tasks are joined.
+ */
+@SuppressWarnings("serial")  // Fork-join tasks are never serialized - this covers Merge as well
+class ParallelMergeSort extends RecursiveAction {
+
+    static final int DEFAULT_CUTOFF = 8192;  // Below this many elements forking costs more than it saves
+
+    final int[] inputArray;
+    final int[] workingArray;
+    final int lowerIndex;
+    final int higherIndex;
+    final boolean intoWorking;
+    final int cutoff;
+    final SortCounters counters = new SortCounters();
+
+    ParallelMergeSort(int[] inputArray, int[] workingArray, int lowerIndex, int higherIndex,
+                      boolean intoWorking, int cutoff) {
+        this.inputArray = inputArray;
+        this.workingArray = workingArray;
+        this.lowerIndex = lowerIndex;
+        this.higherIndex = higherIndex;
+        this.intoWorking = intoWorking;
+        this.cutoff = cutoff;
+    }
+
+    @Override
+    protected void compute() {
+        int size = higherIndex - lowerIndex + 1;
+        if (size <= cutoff) {
+            // The same range of workingArray is free here, so the dSort engine can use it as its merge buffer
+            NaturalMergeSort.sort(inputArray, lowerIndex, higherIndex + 1, workingArray, lowerIndex, counters);
+            if (intoWorking) {
+                System.arraycopy(inputArray, lowerIndex, workingArray, lowerIndex, size);
+                counters.moves(size);
+            }
+            return;
+        }
+        int middle = lowerIndex + (higherIndex - lowerIndex) / 2;
+        ParallelMergeSort left = new ParallelMergeSort(inputArray, workingArray, lowerIndex, middle, !intoWorking, cutoff);
+        ParallelMergeSort right = new ParallelMergeSort(inputArray, workingArray, middle + 1, higherIndex, !intoWorking, cutoff);
+        invokeAll(left, right);
+        counters.add(left.counters);
+        counters.add(right.counters);
+
+        // The sorted halves are in the array we are not sorting into
+        int[] source = intoWorking ? inputArray : workingArray;
+        int[] target = intoWorking ? workingArray : inputArray;
+        Merge merge = new Merge(source, target, lowerIndex, middle, middle + 1, higherIndex, lowerIndex, cutoff);
+        merge.invoke();
+        counters.add(merge.counters);
+    }
+
+    /**
+     * Merges source[lo1..hi1] and source[lo2..hi2] into target starting at targetIndex.
+     * Above the cutoff the middle element of the longer run is used as a split point: a binary search
+     * finds where it falls in the shorter run, it is written straight to its final place, and the two
+     * sides are merged in parallel. Equal elements from the first run stay ahead of the second, so the
+     * merge is stable.
+     */
+    static class Merge extends RecursiveAction {
+        final int[] source;
+        final int[] target;
+        final int lo1, hi1, lo2, hi2;
+        final int targetIndex;
+        final int cutoff;
+        final SortCounters counters = new SortCounters();
+
+        Merge(int[] source, int[] target, int lo1, int hi1, int lo2, int hi2, int targetIndex, int cutoff) {
+            this.source = source;
+            this.target = target;
+            this.lo1 = lo1;
+            this.hi1 = hi1;
+            this.lo2 = lo2;
+            this.hi2 = hi2;
+            this.targetIndex = targetIndex;
+            this.cutoff = cutoff;
+        }
+
+        @Override
+        protected void compute() {
+            int size1 = hi1 - lo1 + 1;
+            int size2 = hi2 - lo2 + 1;
+            if (size1 + size2 <= cutoff || size1 == 0 || size2 == 0) {
+                mergeSequential();
+                return;
+            }
+
+            int split1;  // Elements of the first run before this index go to the left side
+            int split2;  // Elements of the second run before this index go to the left side
+            int pivot;
+            if (size1 >= size2) {
+                split1 = lo1 + (hi1 - lo1) / 2;
+                pivot = source[split1];
+                split2 = lowerBound(source, lo2, hi2, pivot);   // Equal elements of run 2 stay right of the pivot
+            } else {
+                split2 = lo2 + (hi2 - lo2) / 2;
+                pivot = source[split2];
+                split1 = upperBound(source, lo1, hi1, pivot);   // Equal elements of run 1 stay left of the pivot
+            }
+            int pivotIndex = targetIndex + (split1 - lo1) + (split2 - lo2);
+
+            Merge left;
+            Merge right;
+            if (size1 >= size2) {
+                target[pivotIndex] = pivot;
+                left = new Merge(source, target, lo1, split1 - 1, lo2, split2 - 1, targetIndex, cutoff);
+                right = new Merge(source, target, split1 + 1, hi1, split2, hi2, pivotIndex + 1, cutoff);
+            } else {
+                left = new Merge(source, target, lo1, split1 - 1, lo2, split2 - 1, targetIndex, cutoff);
+                target[pivotIndex] = pivot;
+                right = new Merge(source, target, split1, hi1, split2 + 1, hi2, pivotIndex + 1, cutoff);
+            }
+            counters.moves(1);
+            invokeAll(left, right);
+            counters.add(left.counters);
+            counters.add(right.counters);
+        }
+
+        /**
+         * The plain two-way merge used below the cutoff
+         */
+        private void mergeSequential() {
+            long count = 0;
+            int i1 = lo1;
+            int i2 = lo2;
+            int newIndex = targetIndex;
+            while (i1 <= hi1 && i2 <= hi2) {
+                if (source[i1] <= source[i2]) {
+                    target[newIndex++] = source[i1++];
+                } else {
+                    target[newIndex++] = source[i2++];
+                }
+                count++;
+            }
+            // Copy whatever is left of either run
+            System.arraycopy(source, i1, target, newIndex, hi1 - i1 + 1);
+            newIndex += hi1 - i1 + 1;
+            System.arraycopy(source, i2, target, newIndex, hi2 - i2 + 1);
+            counters.comparisons(count);
+            counters.moves((hi1 - lo1 + 1) + (hi2 - lo2 + 1));
+        }
+
+        /**
+         * Find the first index in array[low..high] whose value is not less than value
+         * @return the index, or high + 1 if every value is less
+         */
+        private int lowerBound(int[] array, int low, int high, int value) {
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (array[middle] < value) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+                counters.comparisons++;
+            }
+            return low;
+        }
+
+        /**
+         * Find the first index in array[low..high] whose value is greater than value
+         * @return the index, or high + 1 if no value is greater
+         */
+        private int upperBound(int[] array, int low, int high, int value) {
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (array[middle] <= value) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+                counters.comparisons++;
+            }
+            return low;
+        }
+    }
+}
+
+/**
+ * The bridge from the scalar code to the Vector API kernels in vectorkernels.java. jdk.incubator.vector
+ * is an incubator module, so this program must compile and run without it: the kernels are looked up
+ * by name only when the module is in the boot layer, and through method handles held in static final
+ * fields, which the JIT inlines like direct calls. Without the module, or without VectorKernels on the
+ * class path, VECTORIZED is false and the callers run their own scalar loops.
+ */
+class ScanKernels {
+
+    static final String MODULE = "jdk.incubator.vector";
+
+    private static final MethodHandle LINEAR_SEARCH;
+    private static final MethodHandle DIGIT_HISTOGRAM;
+
+    // True when the kernels were found and the platform has a useful vector width
+    static final boolean VECTORIZED;
+
+    static {
+        MethodHandle linearSearch = null;
+        MethodHandle digitHistogram = null;
+        boolean vectorized = false;
+        if (ModuleLayer.boot().findModule(MODULE).isPresent()) {
+            // VectorKernels sits next to this class - in the default package, or in the benchmark build's package
+            String packageName = ScanKernels.class.getPackageName();
+            String className = packageName.isEmpty() ? "VectorKernels" : packageName + ".VectorKernels";
+            try {
+                Class<?> kernels = Class.forName(className);
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                linearSearch = lookup.findStatic(kernels, "linearSearch",
+                        MethodType.methodType(int.class, int[].class, int.class));
+                digitHistogram = lookup.findStatic(kernels, "digitHistogram",
+                        MethodType.methodType(void.class, int[].class, int.class, int.class, int.class, int[].class, int.class));
+                vectorized = kernels.getDeclaredField("ENABLED").getBoolean(null);
+            } catch (ReflectiveOperationException e) {
+                vectorized = false;  // Compiled without vectorkernels.java - stay scalar
+            }
+        }
+        LINEAR_SEARCH = linearSearch;
+        DIGIT_HISTOGRAM = digitHistogram;
+        VECTORIZED = vectorized;
+    }
+
+    /**
+     * VectorKernels.linearSearch - only call when VECTORIZED
+     */
+    static int linearSearch(int[] array, int value) {
+        try {
+            return (int) LINEAR_SEARCH.invokeExact(array, value);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * VectorKernels.digitHistogram - only call when VECTORIZED
+     */
+    static void digitHistogram(int[] array, int from, int to, int shift, int[] counts, int offset) {
+        try {
+            DIGIT_HISTOGRAM.invokeExact(array, from, to, shift, counts, offset);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * The kernels declare no checked exceptions, so anything they throw is unchecked and passed on as it is
+     */
+    static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        throw new IllegalStateException(e);
+    }
+}
+
+/**
+ * The bridge from the HelperClass sort and search entry points to the Flight Recorder events in
+ * sortevents.java. Like ScanKernels it finds the events at run time, so this file compiles and runs without
+ * them and without jdk.jfr. While no recording is running an entry point pays for one read of a volatile
+ * field and allocates nothing; FlightRecording in sortevents.java keeps that field up to date.
+ */
+class SortTracing {
+
+    static final String MODULE = "jdk.jfr";
+
+    // True while any recording is running - only ever set when the events were found
+    static volatile boolean recording;
+
+    private static final MethodHandle BEGIN_SORT;     // SortEvent.begin(String, int)
+    private static final MethodHandle COMMIT_SORT;    // SortEvent.commit(SortEvent, long, long, long, long)
+    private static final MethodHandle BEGIN_SEARCH;   // SearchEvent.begin(String, int)
+    private static final MethodHandle COMMIT_SEARCH;  // SearchEvent.commit(SearchEvent, long, int)
+
+    static {
+        MethodHandle beginSort = null;
+        MethodHandle commitSort = null;
+        MethodHandle beginSearch = null;
+        MethodHandle commitSearch = null;
+        if (ModuleLayer.boot().findModule(MODULE).isPresent()) {
+            // The events sit next to this class - in the default package, or in the package of a larger build
+            String packageName = SortTracing.class.getPackageName();
+            String prefix = packageName.isEmpty() ? "" : packageName + ".";
+            try {
+                Class<?> sortEvent = Class.forName(prefix + "SortEvent");
+                Class<?> searchEvent = Class.forName(prefix + "SearchEvent");
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                MethodType begin = MethodType.methodType(Object.class, String.class, int.class);
+                beginSort = lookup.findStatic(sortEvent, "begin", begin.changeReturnType(sortEvent)).asType(begin);
+                beginSearch = lookup.findStatic(searchEvent, "begin", begin.changeReturnType(searchEvent)).asType(begin);
+                MethodType commit = MethodType.methodType(void.class, Object.class, long.class, long.class, long.class, long.class);
+                commitSort = lookup.findStatic(sortEvent, "commit", commit.changeParameterType(0, sortEvent)).asType(commit);
+                commit = MethodType.methodType(void.class, Object.class, long.class, int.class);
+                commitSearch = lookup.findStatic(searchEvent, "commit", commit.changeParameterType(0, searchEvent)).asType(commit);
+                // Loading FlightRecording registers the listener that sets recording
+                Class.forName(prefix + "FlightRecording");
+            } catch (ReflectiveOperationException e) {
+                beginSort = null;  // Compiled without sortevents.java - emit nothing
+                beginSearch = null;
+            }
+        }
+        BEGIN_SORT = beginSort;
+        COMMIT_SORT = commitSort;
+        BEGIN_SEARCH = beginSearch;
+        COMMIT_SEARCH = commitSearch;
+    }
+
+    /**
+     * The metrics sink of a sort while its SortEvent is recorded. It counts the work for the event and
+     * passes it on to the caller's sink unchanged.
+     */
+    static final class RecordedSort implements SortMetrics {
+        final Object event;
+        final SortMetrics target;
+        long comparisons;
+        long swaps;
+        long moves;
+        long allocatedBytes;
+
+        RecordedSort(Object event, SortMetrics target) {
+            this.event = event;
+            this.target = target;
+        }
+
+        @Override
+        public void comparisons(long count) {
+            comparisons += count;
+            target.comparisons(count);
+        }
+
+        @Override
+        public void swaps(long count) {
+            swaps += count;
+            target.swaps(count);
+        }
+
+        @Override
+        public void moves(long count) {
+            moves += count;
+            target.moves(count);
+        }
+
+        @Override
+        public void allocated(long bytes) {
+            allocatedBytes += bytes;
+            target.allocated(bytes);
+        }
+    }
+
+    /**
+     * Start a SortEvent for a sort, if one is being recorded
+     *
+     * @param engine The name of the sort
+     * @param size The number of elements to sort
+     * @param metrics The caller's metrics sink
+     * @return Where the sort reports its work - a RecordedSort, or metrics itself when no event is recorded
+     */
+    static SortMetrics beginSort(String engine, int size, SortMetrics metrics) {
+        if (!recording || BEGIN_SORT == null) {
+            return metrics;
+        }
+        try {
+            Object event = (Object) BEGIN_SORT.invokeExact(engine, size);
+            return event != null ? new RecordedSort(event, metrics) : metrics;
+        } catch (Throwable e) {
+            throw ScanKernels.rethrow(e);
+        }
+    }
+
+    /**
+     * Commit the event started by beginSort, if there is one
+     *
+     * @param sink What beginSort returned
+     */
+    static void endSort(SortMetrics sink) {
+        if (!(sink instanceof RecordedSort)) {
+            return;
+        }
+        RecordedSort sort = (RecordedSort) sink;
+        try {
+            COMMIT_SORT.invokeExact(sort.event, sort.comparisons, sort.swaps, sort.moves, sort.allocatedBytes);
+        } catch (Throwable e) {
+            throw ScanKernels.rethrow(e);
+        }
+    }
+
+    /**
+     * Start a SearchEvent for a search, if one is being recorded
+     *
+     * @param engine The name of the search
+     * @param size The number of elements to search
+     * @return The event to pass to endSearch, or null
+     */
+    static Object beginSearch(String engine, int size) {
+        if (!recording || BEGIN_SEARCH == null) {
+            return null;
+        }
+        try {
+            return (Object) BEGIN_SEARCH.invokeExact(engine, size);
+        } catch (Throwable e) {
+            throw ScanKernels.rethrow(e);
+        }
+    }
+
+    /**
+     * Commit the event started by beginSearch, if there is one
+     *
+     * @param event What beginSearch returned
+     * @param comparisons The elements compared
+     * @param position Where the value was found, or -1
+     */
+    static void endSearch(Object event, long comparisons, int position) {
+        if (event == null) {
+            return;
+        }
+        try {
+            COMMIT_SEARCH.invokeExact(event, comparisons, position);
+        } catch (Throwable e) {
+            throw ScanKernels.rethrow(e);
+        }
+    }
+}
+
+/**
+ * The LSD Radix Sort behind HelperClass.gSort. Values are sorted one 8-bit digit at a time, lowest
+ * digit first, with the sign bit flipped so negative values order before positive ones. Memory is
+ * the one buffer the size of the input plus a 256-entry histogram per chunk, whatever the values are.
+ *
+ * The first scan builds the histograms of all four digits at once. A digit that is the same for every
+ * value needs no pass, and when max - min is smaller than the array a single counting pass is used
+ * instead. On large arrays the input is split into one chunk per worker: each chunk counts its own
+ * histogram, a prefix sum over (digit, chunk) gives every chunk its own slice of each bucket, and the
+ * chunks scatter in parallel without sharing anything.
+ */
+class RadixSort {
+
+    static final int DIGIT_BITS = 8;
+    static final int RADIX = 1 << DIGIT_BITS;
+    static final int DIGITS = Integer.SIZE / DIGIT_BITS;
+    static final int PARALLEL_THRESHOLD = 1 << 17;  // Smaller arrays are sorted on the calling thread
+    static final int MIN_CHUNK = 1 << 15;           // Smallest chunk worth handing to another thread
+
+    /**
+     * Sort an array, using the pool for large arrays
+     *
+     * @param array The array to sort
+     * @param pool The pool for the parallel passes
+     * @param metrics Where the sort reports its work
+     */
+    static void sort(int[] array, ForkJoinPool pool, SortMetrics metrics) {
+        int n = array.length;
+        if (n < 2) {
+            return;
+        }
+        int chunks = 1;
+        if (n >= PARALLEL_THRESHOLD && pool.getParallelism() > 1) {
+            chunks = Math.max(1, Math.min(pool.getParallelism(), n / MIN_CHUNK));
+        }
+        int chunkSize = (n + chunks - 1) / chunks;
+
+        // One scan for the histograms of every digit and the min and max of every chunk
+        int[][] counts = new int[chunks][DIGITS * RADIX];
+        int[] chunkMin = new int[chunks];
+        int[] chunkMax = new int[chunks];
+        metrics.allocated(4L * chunks * (DIGITS * RADIX + 2));
+        ChunkAction.forEach(pool, chunks, c -> {
+            int from = c * chunkSize;
+            int to = Math.min(n, from + chunkSize);
+            int[] count = counts[c];
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (int i = from; i < to; i++) {
+                int value = array[i];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+                int key = value ^ Integer.MIN_VALUE;  // Flip the sign bit so the digits order like signed ints
+                count[key & 0xFF]++;
+                count[RADIX + ((key >>> 8) & 0xFF)]++;
+                count[2 * RADIX + ((key >>> 16) & 0xFF)]++;
+                count[3 * RADIX + (key >>> 24)]++;
+            }
+            chunkMin[c] = min;
+            chunkMax[c] = max;
+        });
+        int min = chunkMin[0];
+        int max = chunkMax[0];
+        for (int c = 1; c < chunks; c++) {
+            min = Math.min(min, chunkMin[c]);
+            max = Math.max(max, chunkMax[c]);
+        }
+        metrics.comparisons(2L * (n - 1)); // The min and max scan is the only place values are compared
+
+        if ((long) max - min < n) {  // Narrow range - one counting pass beats several digit passes
+            countingSort(array, min, max, metrics);
+            return;
+        }
+
+        int[] source = array;
+        int[] target = new int[n];
+        metrics.allocated(4L * n);
+        boolean firstPass = true;
+        for (int digit = 0; digit < DIGITS; digit++) {
+            int shift = digit * DIGIT_BITS;
+            int base = digit * RADIX;  // Where this digit's histogram starts in each chunk's counts
+            if (isConstantDigit(counts, digit, n)) {
+                continue;  // Every value has the same digit here, so the pass would not move anything
+            }
+            if (!firstPass) {  // The chunks hold different values after a pass, so count them again
+                int[] from = source;
+                ChunkAction.forEach(pool, chunks, c -> {
+                    int[] count = counts[c];
+                    Arrays.fill(count, base, base + RADIX, 0);
+                    int end = Math.min(n, (c + 1) * chunkSize);
+                    if (ScanKernels.VECTORIZED) {
+                        ScanKernels.digitHistogram(from, c * chunkSize, end, shift, count, base);
+                        return;
+                    }
+                    for (int i = c * chunkSize; i < end; i++) {
+                        count[base + (((from[i] ^ Integer.MIN_VALUE) >>> shift) & 0xFF)]++;
+                    }
+                });
+            }
+
+            // Turn the counts into start offsets - bucket by bucket, and chunk by chunk inside a bucket
+            int offset = 0;
+            for (int bucket = base; bucket < base + RADIX; bucket++) {
+                for (int c = 0; c < chunks; c++) {
+                    int count = counts[c][bucket];
+                    counts[c][bucket] = offset;
+                    offset += count;
+                }
+            }
+
+            int[] from = source;
+            int[] to = target;
+            ChunkAction.forEach(pool, chunks, c -> {
+                int[] next = counts[c];
+                int end = Math.min(n, (c + 1) * chunkSize);
+                for (int i = c * chunkSize; i < end; i++) {
+                    int value = from[i];
+                    to[next[base + (((value ^ Integer.MIN_VALUE) >>> shift) & 0xFF)]++] = value;
+                }
+            });
+            metrics.moves(n);
+            source = to;
+            target = from;
+            firstPass = false;
+        }
+        if (source != array) {  // An odd number of passes left the result in the buffer
+            System.arraycopy(source, 0, array, 0, n);
+            metrics.moves(n);
+        }
+    }
+
+    /**
+     * Check whether every value has the same digit, using the histograms of the first scan
+     */
+    private static boolean isConstantDigit(int[][] counts, int digit, int n) {
+        for (int bucket = digit * RADIX; bucket < (digit + 1) * RADIX; bucket++) {
+            int total = 0;
+            for (int[] count : counts) {
+                total += count[bucket];
+            }
+            if (total != 0) {
+                return total == n;  // The first bucket in use holds everything or the digit varies
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sort an array whose values all lie in [min, max] by counting each value
+     * The caller makes sure max - min is smaller than the array, so this is O(N) time and memory
+     */
+    static void countingSort(int[] array, int min, int max, SortMetrics metrics) {
+        int[] b = new int[max - min + 1];
+        metrics.allocated(4L * b.length);
+        for (int value : array) {
+            b[value - min]++;
+        }
+        int count = 0;
+        for (int i = 0; i < b.length; i++) {
+            for (int j = 0; j < b[i]; j++) {
+                array[count++] = i + min;
+            }
+        }
+        metrics.moves(count); // Every element is written back once
+    }
+}
+
+/**
+ * Runs a body once for every chunk index in [from, to), splitting the range in half across the pool
+ * until a single index is left. Used for the chunked passes of the parallel engines.
+ */
+@SuppressWarnings("serial")  // Fork-join tasks are never serialized
+class ChunkAction extends RecursiveAction {
+    final int from;
+    final int to;
+    final IntConsumer body;
+
+    ChunkAction(int from, int to, IntConsumer body) {
+        this.from = from;
+        this.to = to;
+        this.body = body;
+    }
+
+    /**
+     * Run body for chunks 0 to chunks - 1, on the calling thread when there is only one chunk
+     *
+     * @param pool The pool to run the chunks on
+     * @param chunks The number of chunks
+     * @param body What to do with each chunk index
+     */
+    static void forEach(ForkJoinPool pool, int chunks, IntConsumer body) {
+        if (chunks == 1) {
+            body.accept(0);
+        } else {
+            pool.invoke(new ChunkAction(0, chunks, body));
+        }
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from == 1) {
+            body.accept(from);
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        invokeAll(new ChunkAction(from, middle, body), new ChunkAction(middle, to, body));
+    }
+}
+
+/**
+ * The LSD Radix Sort for 64-bit keys behind the long and double variants of HelperClass.gSort and
+ * HelperClass.sortIndex. Keys are sorted one 8-bit digit at a time with the sign bit flipped, digits
+ * that are the same for every key are skipped, and an optional int array of ids is moved with the keys.
+ * Doubles are sorted through sortableBits, which maps them to longs in Double.compare order.
+ */
+class LongRadixSort {
+
+    static final int DIGIT_BITS = 8;
+    static final int RADIX = 1 << DIGIT_BITS;
+    static final int DIGITS = Long.SIZE / DIGIT_BITS;
+
+    /**
+     * Map a double to a long that orders like Double.compare: negative values have every bit but the
+     * sign flipped so larger magnitudes sort lower, -0.0 lands just below 0.0, and every NaN is
+     * collapsed to the one canonical NaN above positive infinity.
+     *
+     * @param value The double to map
+     * @return A long with the same order as the double
+     */
+    static long sortableBits(double value) {
+        long bits = Double.doubleToLongBits(value);
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+
+    /**
+     * The inverse of sortableBits
+     *
+     * @param key A long made by sortableBits
+     * @return The double it was made from
+     */
+    static double fromSortableBits(long key) {
+        return Double.longBitsToDouble(key ^ ((key >> 63) & Long.MAX_VALUE));
+    }
+
+    /**
+     * Sort keys and move the ids with them, allocating the buffers
+     *
+     * @param keys The keys to sort
+     * @param ids The ids that travel with the keys
+     * @param metrics Where the sort reports its work
+     */
+    static void sortWithIds(long[] keys, int[] ids, SortMetrics metrics) {
+        long[] keyBuffer = new long[keys.length];
+        int[] idBuffer = new int[ids.length];
+        metrics.allocated(8L * keys.length + 4L * ids.length);
+        sort(keys, ids, keyBuffer, idBuffer, metrics);
+    }
+
+    /**
+     * Sort keys as signed longs, stably, moving ids along with them when ids is not null
+     *
+     * @param keys The keys to sort
+     * @param ids The ids that travel with the keys, or null
+     * @param keyBuffer Working storage at least as long as keys
+     * @param idBuffer Working storage at least as long as ids, or null when ids is null
+     * @param metrics Where the sort reports its work
+     */
+    static void sort(long[] keys, int[] ids, long[] keyBuffer, int[] idBuffer, SortMetrics metrics) {
+        int n = keys.length;
+        if (n < 2) {
+            return;
+        }
+
+        // One scan for the histograms of every digit
+        int[] counts = new int[DIGITS * RADIX];
+        metrics.allocated(4L * counts.length);
+        for (int i = 0; i < n; i++) {
+            long key = keys[i] ^ Long.MIN_VALUE;
+            for (int digit = 0; digit < DIGITS; digit++) {
+                counts[digit * RADIX + (int) ((key >>> (digit * DIGIT_BITS)) & 0xFF)]++;
+            }
+        }
+
+        long[] sourceKeys = keys;
+        long[] targetKeys = keyBuffer;
+        int[] sourceIds = ids;
+        int[] targetIds = idBuffer;
+        for (int digit = 0; digit < DIGITS; digit++) {
+            int base = digit * RADIX;
+            int shift = digit * DIGIT_BITS;
+
+            // Skip the pass when every key has the same digit here
+            boolean constant = false;
+            for (int bucket = base; bucket < base + RADIX; bucket++) {
+                if (counts[bucket] != 0) {
+                    constant = counts[bucket] == n;
+                    break;
+                }
+            }
+            if (constant) {
+                continue;
+            }
+
+            // Turn the counts into start offsets
+            int offset = 0;
+            for (int bucket = base; bucket < base + RADIX; bucket++) {
+                int count = counts[bucket];
+                counts[bucket] = offset;
+                offset += count;
+            }
+
+            for (int i = 0; i < n; i++) {
+                long key = sourceKeys[i];
+                int position = counts[base + (int) (((key ^ Long.MIN_VALUE) >>> shift) & 0xFF)]++;
+                targetKeys[position] = key;
+                if (sourceIds != null) {
+                    targetIds[position] = sourceIds[i];
+                }
+            }
+            metrics.moves(sourceIds != null ? 2L * n : n);
+
+            long[] swapKeys = sourceKeys;
+            sourceKeys = targetKeys;
+            targetKeys = swapKeys;
+            int[] swapIds = sourceIds;
+            sourceIds = targetIds;
+            targetIds = swapIds;
+        }
+        if (sourceKeys != keys) {  // An odd number of passes left the result in the buffers
+            System.arraycopy(sourceKeys, 0, keys, 0, n);
+            if (ids != null) {
+                System.arraycopy(sourceIds, 0, ids, 0, n);
+            }
+            metrics.moves(ids != null ? 2L * n : n);
+        }
+    }
+}
+
+/**
+ * A single front door for sorting an int array. AdaptiveSort takes one cheap look at the input -
+ * length, min and max, how often it steps down, and how many distinct values a small sample holds -
+ * and sends it to the HelperClass engine that suits that shape best.
+ *
+ * Every call returns the Decision it made and counts it in a per-decision total, so the choices
+ * can be audited from the outside.
+ */
+class AdaptiveSort {
+
+    static final int INSERTION_MAX = 32;        // At or below this size insertion sort wins
+    static final int RADIX_MIN = 4096;          // Below this size radix histograms cost more than they save
+    static final int NEARLY_SORTED_RATIO = 64;  // At most one step down per this many elements is nearly sorted
+    static final int SAMPLE_SIZE = 64;          // Elements sampled to estimate the duplicate ratio
+    static final int FEW_UNIQUE_RATIO = 8;      // A sample with under 1/8 distinct values is duplicate heavy
+
+    /**
+     * The engine chosen for an input
+     */
+    enum Decision {
+        ALREADY_SORTED,   // Nothing to do
+        REVERSED,         // Non-increasing - reversed in place
+        INSERTION,        // Tiny input - cSort
+        NARROW_RANGE,     // max - min below the length - gSort counting pass
+        NEARLY_SORTED,    // Few steps down - dSort
+        FEW_UNIQUE,       // Heavy duplicates - aSort with its three-way partition
+        SMALL,            // Too short for radix histograms to pay off - aSort
+        RADIX,            // Everything else - gSort on the calling thread
+        PARALLEL_RADIX    // Everything else, large enough to split - gSort on the pool
+    }
+
+    private static final AtomicLongArray decisionCounts = new AtomicLongArray(Decision.values().length);
+
+    /**
+     * What one scan of the input found
+     */
+    static class InputProfile {
+        int length;
+        int min;
+        int max;
+        int descents;        // Positions where the next element is smaller
+        int ascents;         // Positions where the next element is larger
+        int sampleDistinct;  // Distinct values among the sampled elements
+        int sampleSize;      // Elements sampled
+
+        long range() {
+            return (long) max - min;
+        }
+
+        @Override
+        public String toString() {
+            return "length=" + length + " min=" + min + " max=" + max + " descents=" + descents
+                    + " ascents=" + ascents + " sampleDistinct=" + sampleDistinct + "/" + sampleSize;
+        }
+    }
+
+    /**
+     * Sort an array with the engine that suits it, using the common pool for parallel engines
+     *
+     * @param array The array to sort
+     * @return The engine that was chosen
+     */
+    static Decision sort(int[] array) {
+        return sort(array, ForkJoinPool.commonPool(), SortMetrics.NOOP);
+    }
+
+    /**
+     * Sort an array with the engine that suits it
+     *
+     * @param array The array to sort
+     * @param pool The pool parallel engines run on
+     * @param metrics Where the chosen engine reports its work
+     * @return The engine that was chosen
+     */
+    static Decision sort(int[] array, ForkJoinPool pool, SortMetrics metrics) {
+        InputProfile profile = profile(array);
+        metrics.comparisons(3L * Math.max(profile.length - 1, 0)); // Min, max and the step down check
+        Decision decision = decide(profile, pool);
+        decisionCounts.incrementAndGet(decision.ordinal());
+
+        switch (decision) {
+            case ALREADY_SORTED:
+                break;
+            case REVERSED:
+                for (int i = 0, j = array.length - 1; i < j; i++, j--) {
+                    HelperClass.swap(array, i, j);
+                }
+                metrics.swaps(array.length / 2);
+                break;
+            case INSERTION:
+                HelperClass.cSort(array, metrics);
+                break;
+            case NEARLY_SORTED:
+                HelperClass.dSort(array, metrics);
+                break;
+            case FEW_UNIQUE:
+            case SMALL:
+                HelperClass.aSort(array, metrics);
+                break;
+            case NARROW_RANGE:
+                RadixSort.countingSort(array, profile.min, profile.max, metrics);
+                break;
+            case RADIX:
+            case PARALLEL_RADIX:
+                HelperClass.gSort(array, pool, metrics);
+                break;
+        }
+        return decision;
+    }
+
+    /**
+     * Choose an engine for a profiled input
+     *
+     * @param profile What the scan of the input found
+     * @param pool The pool parallel engines would run on
+     * @return The engine to use
+     */
+    static Decision decide(InputProfile profile, ForkJoinPool pool) {
+        int n = profile.length;
+        if (profile.descents == 0) {
+            return Decision.ALREADY_SORTED;
+        }
+        if (profile.ascents == 0) {
+            return Decision.REVERSED;
+        }
+        if (n <= INSERTION_MAX) {
+            return Decision.INSERTION;
+        }
+        if (profile.range() < n) {
+            return Decision.NARROW_RANGE;
+        }
+        if (profile.descents <= n / NEARLY_SORTED_RATIO) {
+            return Decision.NEARLY_SORTED;
+        }
+        if (profile.sampleDistinct * FEW_UNIQUE_RATIO < profile.sampleSize) {
+            return Decision.FEW_UNIQUE;
+        }
+        if (n < RADIX_MIN) {
+            return Decision.SMALL;
+        }
+        if (n >= RadixSort.PARALLEL_THRESHOLD && pool.getParallelism() > 1) {
+            return Decision.PARALLEL_RADIX;
+        }
+        return Decision.RADIX;
+    }
+
+    /**
+     * Scan an array once for its length, min, max and steps up and down, and sample it for duplicates
+     *
+     * @param array The array to profile
+     * @return The profile
+     */
+    static InputProfile profile(int[] array) {
+        InputProfile profile = new InputProfile();
+        int n = array.length;
+        profile.length = n;
+        if (n == 0) {
+            return profile;
+        }
+        int min = array[0];
+        int max = array[0];
+        int descents = 0;
+        int ascents = 0;
+        for (int i = 1; i < n; i++) {
+            int previous = array[i - 1];
+            int value = array[i];
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            descents += (value < previous) ? 1 : 0;
+            ascents += (value > previous) ? 1 : 0;
+        }
+        profile.min = min;
+        profile.max = max;
+        profile.descents = descents;
+        profile.ascents = ascents;
+
+        // Sort an evenly spaced sample and count its distinct values
+        int sampleSize = Math.min(SAMPLE_SIZE, n);
+        int[] sample = new int[sampleSize];
+        for (int i = 0; i < sampleSize; i++) {
+            sample[i] = array[(int) ((long) i * n / sampleSize)];
+        }
+        HelperClass.insertionSort(sample, 0, sampleSize - 1, SortMetrics.NOOP);  // Part of this profile, not a cSort of its own
+        int distinct = 1;
+        for (int i = 1; i < sampleSize; i++) {
+            distinct += (sample[i] != sample[i - 1]) ? 1 : 0;
+        }
+        profile.sampleDistinct = distinct;
+        profile.sampleSize = sampleSize;
+        return profile;
+    }
+
+    /**
+     * How many times each decision has been made since the program started
+     *
+     * @param decision The decision to look up
+     * @return The number of sorts that made it
+     */
+    static long decisionCount(Decision decision) {
+        return decisionCounts.get(decision.ordinal());
+    }
+}
+
+/**
+ * An external merge sort for files of ints too large for the heap. The input is a raw file of 4-byte
+ * big-endian ints. It is read one chunk at a time with positional reads through a single reused direct
+ * buffer; each chunk is sorted in memory by AdaptiveSort and written to a temporary run file through the
+ * same buffer, and the runs are then merged with a primitive min-heap through large sequential buffers.
+ * Runs are deleted as soon as they have been merged. The whole input is never in memory at once, and
+ * the memory budget covers every array and buffer the sort allocates: one chunk, the I/O buffer and the
+ * sorting engine's buffer while sorting, and the run buffers plus the output buffer while merging.
+ */
+class ExternalSort {
+
+    static final int MIN_BUFFER = 64 * 1024;  // Smallest read buffer per run worth merging through
+    static final int MAX_FAN_IN = 256;        // More runs than this are merged in several passes
+    static final int IO_BUFFER = 1 << 20;     // Largest buffer chunks are read and written through
+
+    /**
+     * Sort a file of ints into another file
+     *
+     * @param input The file to sort
+     * @param output The file to write the sorted ints to
+     * @param memoryBudget The heap bytes the sort may use for chunks and buffers
+     * @param tempDirectory Where the run files are written
+     * @param metrics Where the sort reports its work
+     * @throws IOException if a file cannot be read or written
+     */
+    static void sort(Path input, Path output, long memoryBudget, Path tempDirectory, SortMetrics metrics)
+            throws IOException {
+        List<Path> runs = new ArrayList<>();
+        try {
+            try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+                long size = in.size();
+                if (size % Integer.BYTES != 0) {
+                    throw new IOException(input + " is not a whole number of ints");
+                }
+                long totalInts = size / Integer.BYTES;
+
+                // An eighth of the budget goes to the buffer every chunk is read and written through, and
+                // the rest to the chunk plus the buffer of the same size the in-memory engines need
+                ByteBuffer io = ByteBuffer.allocateDirect(ioBufferBytes(memoryBudget / 8));
+                long chunkInts = Math.max(1, Math.min((memoryBudget - io.capacity()) / (2L * Integer.BYTES),
+                        Integer.MAX_VALUE / Integer.BYTES));
+                int[] chunk = new int[(int) Math.min(chunkInts, Math.max(totalInts, 1))];
+                metrics.allocated(io.capacity() + 4L * chunk.length);
+
+                for (long position = 0; position < totalInts; position += chunk.length) {
+                    int length = (int) Math.min(chunk.length, totalInts - position);
+                    readInts(in, position * Integer.BYTES, chunk, length, io);
+
+                    if (length == chunk.length) {
+                        AdaptiveSort.sort(chunk, ForkJoinPool.commonPool(), metrics);
+                    } else {  // The last chunk is sorted where it is rather than copied into a second array
+                        HelperClass.doASort(chunk, 0, length - 1, metrics);
+                    }
+
+                    // A single chunk is the whole answer
+                    Path run = (totalInts <= chunk.length) ? output : Files.createTempFile(tempDirectory, "run", ".bin");
+                    if (run != output) {
+                        runs.add(run);
+                    }
+                    writeInts(run, chunk, length, io);
+                }
+                if (totalInts == 0) {
+                    Files.deleteIfExists(output);
+                    Files.createFile(output);
+                }
+            }
+            if (!runs.isEmpty()) {
+                mergeAll(runs, output, memoryBudget, tempDirectory, metrics);
+            }
+        } finally {
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+        }
+    }
+
+    /**
+     * The most runs one merge may read at once within the budget - every run and the output need a
+     * buffer, and each buffer should be at least MIN_BUFFER, but a merge always reads at least two runs
+     *
+     * @param memoryBudget The bytes a merge may use for its buffers
+     * @return The fan-in, from 2 to MAX_FAN_IN
+     */
+    static int fanIn(long memoryBudget) {
+        return (int) Math.max(2, Math.min(MAX_FAN_IN, memoryBudget / MIN_BUFFER - 1));
+    }
+
+    /**
+     * Merge runs in passes of at most fanIn(memoryBudget) until one merge can write the output
+     */
+    private static void mergeAll(List<Path> runs, Path output, long memoryBudget, Path tempDirectory,
+                                 SortMetrics metrics) throws IOException {
+        int fanIn = fanIn(memoryBudget);
+        List<Path> pending = new ArrayList<>(runs);
+        while (pending.size() > fanIn) {
+            List<Path> merged = new ArrayList<>();
+            for (int from = 0; from < pending.size(); from += fanIn) {
+                List<Path> group = pending.subList(from, Math.min(pending.size(), from + fanIn));
+                Path run = Files.createTempFile(tempDirectory, "run", ".bin");
+                runs.add(run);  // So the caller deletes it if a later pass fails
+                merge(group, run, memoryBudget, metrics);
+                merged.add(run);
+                deleteAll(group);  // Only one pass's runs are on disk at a time
+            }
+            pending = merged;
+        }
+        merge(pending, output, memoryBudget, metrics);
+        deleteAll(pending);
+    }
+
+    /**
+     * Delete run files that have been merged
+     */
+    private static void deleteAll(List<Path> runs) throws IOException {
+        for (Path run : runs) {
+            Files.deleteIfExists(run);
+        }
+    }
+
+    /**
+     * k-way merge of sorted run files into one file
+     * The heap holds run numbers ordered by the current value of each run, smallest at the root.
+     * The budget is shared evenly by the k run buffers and the output buffer.
+     */
+    private static void merge(List<Path> runs, Path output, long memoryBudget, SortMetrics metrics) throws IOException {
+        int k = runs.size();
+        int bufferBytes = (int) Math.max(Integer.BYTES,
+                Math.min(Integer.MAX_VALUE / 2, memoryBudget / (k + 1)) & ~(Integer.BYTES - 1));
+        metrics.allocated((long) bufferBytes * (k + 1));
+
+        RunReader[] readers = new RunReader[k];
+        try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            int[] heap = new int[k];
+            int heapSize = 0;
+            for (int r = 0; r < k; r++) {
+                readers[r] = new RunReader(runs.get(r), bufferBytes);
+                if (readers[r].next()) {
+                    heap[heapSize++] = r;
+                }
+            }
+            long compCounter = 0;
+            for (int i = heapSize / 2 - 1; i >= 0; i--) {
+                compCounter += siftDown(heap, heapSize, i, readers);
+            }
+
+            ByteBuffer outBuffer = ByteBuffer.allocateDirect(bufferBytes);
+            long written = 0;
+            while (heapSize > 0) {
+                RunReader smallest = readers[heap[0]];
+                outBuffer.putInt(smallest.current);
+                written++;
+                if (!outBuffer.hasRemaining()) {
+                    flush(out, outBuffer);
+                }
+                if (!smallest.next()) {  // This run is used up - replace the root with the last leaf
+                    heap[0] = heap[--heapSize];
+                }
+                compCounter += siftDown(heap, heapSize, 0, readers);
+            }
+            flush(out, outBuffer);
+            metrics.comparisons(compCounter);
+            metrics.moves(written);
+        } finally {
+            for (RunReader reader : readers) {
+                if (reader != null) {
+                    reader.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Move heap node i down until its run's current value is not larger than its children's
+     * @return The number of comparisons made
+     */
+    private static long siftDown(int[] heap, int heapSize, int i, RunReader[] readers) {
+        long compCounter = 0;
+        int run = heap[i];
+        int value = readers[run].current;
+        int child;
+        while ((child = 2 * i + 1) < heapSize) {
+            if (child + 1 < heapSize && readers[heap[child + 1]].current < readers[heap[child]].current) {
+                child++;  // Take the smaller child
+            }
+            compCounter += 2;
+            if (readers[heap[child]].current >= value) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = run;
+        return compCounter;
+    }
+
+    /**
+     * The size of the buffer chunks are read and written through when the given number of bytes is
+     * free for it - at most IO_BUFFER and always a whole number of ints
+     */
+    static int ioBufferBytes(long freeBytes) {
+        return (int) Math.max(Integer.BYTES, Math.min(IO_BUFFER, freeBytes) & ~(Integer.BYTES - 1));
+    }
+
+    /**
+     * Read length ints starting at byte offset position of a file into data, through buffer
+     * The reads are positional, so no part of the file is mapped and the channel's position is unused.
+     */
+    static void readInts(FileChannel in, long position, int[] data, int length, ByteBuffer buffer) throws IOException {
+        IntBuffer ints = buffer.clear().asIntBuffer();
+        for (int from = 0; from < length; ) {
+            int count = Math.min(ints.capacity(), length - from);
+            buffer.clear().limit(count * Integer.BYTES);
+            while (buffer.hasRemaining()) {
+                if (in.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("File ended before byte " + (position + count * Integer.BYTES));
+                }
+            }
+            ints.clear();
+            ints.get(data, from, count);
+            position += (long) count * Integer.BYTES;
+            from += count;
+        }
+    }
+
+    /**
+     * Write the first length ints of data to a file through buffer
+     */
+    static void writeInts(Path file, int[] data, int length, ByteBuffer buffer) throws IOException {
+        IntBuffer ints = buffer.clear().asIntBuffer();
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (int from = 0; from < length; ) {
+                int count = Math.min(ints.capacity(), length - from);
+                ints.clear();
+                ints.put(data, from, count);
+                buffer.clear().limit(count * Integer.BYTES);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                from += count;
+            }
+        }
+    }
+
+    /**
+     * Write out everything in a buffer and empty it
+     */
+    private static void flush(FileChannel out, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Reads one sorted run an int at a time through a large buffer
+     */
+    static class RunReader {
+        final FileChannel channel;
+        final ByteBuffer buffer;
+        int current;  // The value next() last read
+
+        RunReader(Path run, int bufferBytes) throws IOException {
+            channel = FileChannel.open(run, StandardOpenOption.READ);
+            buffer = ByteBuffer.allocateDirect(bufferBytes);
+            buffer.limit(0);
+        }
+
+        /**
+         * Read the next value of the run into current
+         * @return false when the run is used up
+         */
+        boolean next() throws IOException {
+            if (!buffer.hasRemaining()) {
+                buffer.clear();
+                // Fill the buffer completely so it always holds whole ints
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                }
+                buffer.flip();
+                if (!buffer.hasRemaining()) {
+                    return false;
+                }
+            }
+            current = buffer.getInt();
+            return true;
+        }
+
+        void close() throws IOException {
+            channel.close();
+        }
+    }
+}
+
+/**
+ * A read-only search index over a sorted int array, laid out for the cache. The keys are stored in
+ * Eytzinger order - the breadth-first order of the implicit binary search tree, root at 1 and the
+ * children of node k at 2k and 2k + 1. The first levels of every search then share a few cache lines,
+ * and the next node is always at a computable address instead of halfway across the array.
+ *
+ * The searches step down the tree with a conditional index update instead of a branch, so there is
+ * nothing to mispredict, and they load the cache line four levels ahead early so it is on its way
+ * by the time the search gets there. The batch methods walk a group of queries down the tree in lockstep, which
+ * keeps several cache misses in flight at once instead of waiting for each one in turn.
+ */
+class SortedIntIndex {
+
+    static final int BATCH_GROUP = 16;  // Queries walked down the tree together by the batch methods
+
+    private final int[] keys;   // keys[1..size] in Eytzinger order, keys[0] unused
+    private final int[] ranks;  // ranks[k] is the position of keys[k] in the sorted array
+    private final int size;
+    private final int depth;    // Levels in the tree - the most steps any search takes
+
+    // The prefetch loads are kept live by comparing their sum with prefetchProbe, the way a JMH Blackhole
+    // does - the JIT cannot prove the sum never matches, but it almost never does, so lookups only read
+    // this shared cache line and practically never write prefetchSink
+    private static volatile int prefetchProbe = 0x9E3779B9;
+    private static volatile int prefetchSink;
+
+    /**
+     * Build an index from a sorted array, such as the output of any HelperClass sort
+     *
+     * @param sorted The keys in ascending order - the array is not kept
+     */
+    SortedIntIndex(int[] sorted) {
+        size = sorted.length;
+        depth = 32 - Integer.numberOfLeadingZeros(size);
+        keys = new int[size + 1];
+        ranks = new int[size + 1];
+        layout(sorted, 0, 1);
+    }
+
+    /**
+     * Build an index from an unsorted array, sorting a copy of it first
+     *
+     * @param array The keys in any order
+     * @return The index
+     */
+    static SortedIntIndex of(int[] array) {
+        int[] sorted = HelperClass.copyArray(array);
+        AdaptiveSort.sort(sorted);
+        return new SortedIntIndex(sorted);
+    }
+
+    /**
+     * Fill the subtree rooted at node k with sorted[position...] by an in-order walk
+     * @return The next unused position of sorted
+     */
+    private int layout(int[] sorted, int position, int k) {
+        if (k <= size) {
+            position = layout(sorted, position, 2 * k);
+            keys[k] = sorted[position];
+            ranks[k] = position++;
+            position = layout(sorted, position, 2 * k + 1);
+        }
+        return position;
+    }
+
+    /**
+     * The number of keys in the index
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * The node whose cache line lowerBoundNode loads ahead of time from node k - the first of its
+     * descendants four levels down, or the last node when those are past the end. The product is
+     * taken in long because 16 * k overflows an int once k passes 2^27.
+     */
+    static int prefetchNode(int k, int size) {
+        return (int) Math.min(16L * k, size);
+    }
+
+    /**
+     * Find the node holding the first key that is not less than value
+     * @return The node, or 0 if every key is less than value
+     */
+    private int lowerBoundNode(int value) {
+        int k = 1;
+        int touched = 0;
+        while (k <= size) {
+            // Java has no prefetch instruction, but a load nothing waits on does the same job:
+            // the 16 descendants four levels down share one cache line, and this starts fetching it
+            touched += keys[prefetchNode(k, size)];
+            k = 2 * k + (keys[k] < value ? 1 : 0);
+        }
+        if (touched == prefetchProbe) {  // Keeps the loads above from being optimised away
+            prefetchSink = touched;
+        }
+        // The path went right every time after the node we want, then left once - undo those steps
+        return k >> (Integer.numberOfTrailingZeros(~k) + 1);
+    }
+
+    /**
+     * Find how many keys are less than value
+     *
+     * @param value The value to look for
+     * @return The position value would take in the sorted keys
+     */
+    int lowerBound(int value) {
+        int k = lowerBoundNode(value);
+        return (k == 0) ? size : ranks[k];
+    }
+
+    /**
+     * Find how many keys are less than or equal to value
+     *
+     * @param value The value to look for
+     * @return The position just after the last copy of value in the sorted keys
+     */
+    int upperBound(int value) {
+        if (value == Integer.MAX_VALUE) {
+            return size;
+        }
+        return lowerBound(value + 1);
+    }
+
+    /**
+     * Check whether a value is in the index
+     *
+     * @param value The value to look for
+     * @return true if at least one key equals value
+     */
+    boolean contains(int value) {
+        int k = lowerBoundNode(value);
+        return k != 0 && keys[k] == value;
+    }
+
+    /**
+     * Count the keys in [low, high]
+     *
+     * @param low The smallest value to count
+     * @param high The largest value to count
+     * @return The number of keys between low and high inclusive
+     */
+    int rangeCount(int low, int high) {
+        if (low > high) {
+            return 0;
+        }
+        return upperBound(high) - lowerBound(low);
+    }
+
+    /**
+     * lowerBound for many queries at once, walking them down the tree BATCH_GROUP at a time
+     *
+     * @param queries The values to look for
+     * @param results Where the lowerBound of each query is written
+     */
+    void lowerBounds(int[] queries, int[] results) {
+        int[] nodes = new int[BATCH_GROUP];
+        for (int from = 0; from < queries.length; from += BATCH_GROUP) {
+            int count = Math.min(BATCH_GROUP, queries.length - from);
+            walk(queries, from, count, nodes);
+            for (int j = 0; j < count; j++) {
+                results[from + j] = (nodes[j] == 0) ? size : ranks[nodes[j]];
+            }
+        }
+    }
+
+    /**
+     * contains for many queries at once, walking them down the tree BATCH_GROUP at a time
+     *
+     * @param queries The values to look for
+     * @param results Where true is written for each query that is in the index
+     */
+    void contains(int[] queries, boolean[] results) {
+        int[] nodes = new int[BATCH_GROUP];
+        for (int from = 0; from < queries.length; from += BATCH_GROUP) {
+            int count = Math.min(BATCH_GROUP, queries.length - from);
+            walk(queries, from, count, nodes);
+            for (int j = 0; j < count; j++) {
+                int k = nodes[j];
+                results[from + j] = k != 0 && keys[k] == queries[from + j];
+            }
+        }
+    }
+
+    /**
+     * Walk queries[from..from + count) down the tree one level at a time, all together,
+     * leaving the lowerBound node of each query in nodes
+     */
+    private void walk(int[] queries, int from, int count, int[] nodes) {
+        Arrays.fill(nodes, 0, count, 1);
+        for (int level = 0; level < depth; level++) {
+            for (int j = 0; j < count; j++) {
+                int k = nodes[j];
+                if (k <= size) {  // Paths through the last, partly filled level stop one step early
+                    nodes[j] = 2 * k + (keys[k] < queries[from + j] ? 1 : 0);
+                }
+            }
+        }
+        for (int j = 0; j < count; j++) {
+            int k = nodes[j];
+            nodes[j] = k >> (Integer.numberOfTrailingZeros(~k) + 1);
+        }
+    }
+}
+
+/**
+ * Measured costs of searching an int array of a given size on this machine - sorting and indexing it
+ * once, a linear search of the unsorted data, and a search of the sorted index. From those it works out
+ * how many searches it takes before sorting first is cheaper than scanning every time.
+ */
+class SearchCostModel {
+
+    static final int WARMUP_ROUNDS = 5;      // Untimed rounds so the timed ones run compiled code
+    static final int MEASURED_ROUNDS = 7;    // Timed rounds - the median is kept
+    static final int QUERIES_PER_ROUND = 256;
+    static volatile long blackhole;          // Where measure leaves its results so the JIT keeps the searches
+
+    final int size;           // The array size the costs were measured at
+    final double sortNanos;   // Copying, sorting and indexing the array once
+    final double scanNanos;   // One linear search of the unsorted array
+    final double probeNanos;  // One search of the sorted index
+
+    SearchCostModel(int size, double sortNanos, double scanNanos, double probeNanos) {
+        this.size = size;
+        this.sortNanos = sortNanos;
+        this.scanNanos = scanNanos;
+        this.probeNanos = probeNanos;
+    }
+
+    /**
+     * Time the three costs on random data of the given size. Half the queries are values in the
+     * array and half are not, so the linear search cost covers both early hits and full scans.
+     *
+     * @param size The array size to measure at
+     * @param bound The upper bound for the random values
+     * @param seed The seed of the data and the queries
+     * @return The measured model
+     */
+    static SearchCostModel measure(int size, int bound, long seed) {
+        int[] data = Workload.generate(Workload.Distribution.UNIFORM, size, bound, seed);
+        Random rand = new Random(seed + 1);
+        int[] queries = new int[QUERIES_PER_ROUND];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = (i % 2 == 0 && size > 0) ? data[rand.nextInt(size)] : -1 - rand.nextInt(bound);
+        }
+
+        long[] sortTimes = new long[MEASURED_ROUNDS];
+        long[] scanTimes = new long[MEASURED_ROUNDS];
+        long[] probeTimes = new long[MEASURED_ROUNDS];
+        long sink = 0;  // Results are added up so the searches cannot be optimised away
+        for (int round = -WARMUP_ROUNDS; round < MEASURED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            SortedIntIndex index = SortedIntIndex.of(data);
+            long sorted = System.nanoTime();
+            for (int query : queries) {
+                sink += HelperClass.linearSearch(data, query);
+            }
+            long scanned = System.nanoTime();
+            for (int query : queries) {
+                sink += index.contains(query) ? 1 : 0;
+            }
+            long probed = System.nanoTime();
+            if (round >= 0) {
+                sortTimes[round] = sorted - start;
+                scanTimes[round] = scanned - sorted;
+                probeTimes[round] = probed - scanned;
+            }
+        }
+        blackhole = sink;
+        return new SearchCostModel(size, median(sortTimes),
+                median(scanTimes) / (double) QUERIES_PER_ROUND,
+                median(probeTimes) / (double) QUERIES_PER_ROUND);
+    }
+
+    private static double median(long[] times) {
+        long[] sorted = Arrays.copyOf(times, times.length);
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    /**
+     * Work out how many searches make sorting first worth it for an array of the given size.
+     * Costs measured at another size are scaled: sorting (a radix sort) and scanning grow linearly
+     * with the size, and a search of the index grows with its log.
+     *
+     * @param arraySize The size of the array that will be searched
+     * @return The smallest number of searches for which sorting first is cheaper,
+     *         or Long.MAX_VALUE if a linear search is never slower
+     */
+    long breakEvenQueries(int arraySize) {
+        double scale = (double) arraySize / Math.max(size, 1);
+        double logScale = log2(arraySize) / Math.max(log2(size), 1.0);
+        double sort = sortNanos * scale;
+        double saved = scanNanos * scale - probeNanos * logScale;  // Saved by every indexed search
+        if (saved <= 0) {
+            return Long.MAX_VALUE;
+        }
+        return (long) Math.ceil(sort / saved);
+    }
+
+    private static double log2(int n) {
+        return Math.log(Math.max(n, 2)) / Math.log(2);
+    }
+}
+
+/**
+ * An int array that can be searched from the start and decides for itself when sorting pays off.
+ * Early queries are answered by linear search. Once the number of queries reaches the break-even point
+ * of a SearchCostModel, a SortedIntIndex is built in the background and later queries use it. Until the
+ * index is ready, queries keep scanning, so nothing waits on the sort. If the executor rejects the build,
+ * the query that reached the threshold builds the index itself, and a build that fails is started again
+ * by the next query.
+ *
+ * The array is owned by this object once it is passed in and must not be changed afterwards.
+ */
+class AdaptiveSearchableIntArray {
+
+    private final int[] data;
+    private final long threshold;          // Queries after which the index is built
+    private final Executor executor;       // Where the index is built
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicBoolean building = new AtomicBoolean();
+    private volatile SortedIntIndex index;  // Null until the background build finishes
+
+    /**
+     * @param data The values to search
+     * @param threshold The number of queries after which sorting pays off
+     * @param executor Where the index is built
+     */
+    AdaptiveSearchableIntArray(int[] data, long threshold, Executor executor) {
+        this.data = data;
+        this.threshold = threshold;
+        this.executor = executor;
+    }
+
+    /**
+     * Make a searchable array whose threshold comes from a measured cost model,
+     * building the index on the common pool
+     *
+     * @param data The values to search
+     * @param model Costs measured on this machine
+     * @return The searchable array
+     */
+    static AdaptiveSearchableIntArray of(int[] data, SearchCostModel model) {
+        return new AdaptiveSearchableIntArray(data, model.breakEvenQueries(data.length), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Check whether a value is in the array
+     *
+     * @param value The value to look for
+     * @return true if the array holds the value
+     */
+    boolean contains(int value) {
+        SortedIntIndex current = index;
+        if (current != null) {
+            return current.contains(value);
+        }
+        if (queries.incrementAndGet() >= threshold && building.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::buildIndex);
+            } catch (RejectedExecutionException e) {
+                buildIndex();  // The executor is shut down or full - build on this thread once instead
+            }
+        }
+        return HelperClass.linearSearch(data, value) >= 0;
+    }
+
+    /**
+     * Build the index and publish it. If the build fails, building is cleared so a later query starts it again.
+     */
+    private void buildIndex() {
+        try {
+            index = SortedIntIndex.of(data);
+        } finally {
+            if (index == null) {
+                building.set(false);
+            }
+        }
+    }
+
+    /**
+     * @return true once queries are served by the sorted index
+     */
+    boolean isIndexed() {
+        return index != null;
+    }
+
+    /**
+     * @return the number of queries answered by linear search so far
+     */
+    long scannedQueries() {
+        return queries.get();
+    }
+}
+
+/**
+ * Named, seeded input distributions for the sort and search benchmarks. The same distribution, size,
+ * bound and seed always give the same array, on any machine and with any number of threads, so
+ * results can be reproduced and compared.
+ *
+ * The array is filled in fixed-size chunks on a fork-join pool. Each chunk draws from its own
+ * SplittableRandom, split off a root generator in chunk order, so which thread fills a chunk makes
+ * no difference to its values.
+ */
+class Workload {
+
+    static final int CHUNK = 1 << 16;            // Elements filled by one task
+    static final int FEW_UNIQUE_VALUES = 8;      // Distinct values in FEW_UNIQUE
+    static final int SAWTOOTH_TEETH = 16;        // Ascending runs in SAWTOOTH
+    static final int NEARLY_SORTED_PERCENT = 1;  // Elements replaced by random values in NEARLY_SORTED
+
+    /**
+     * The shapes of input the generator can produce. Values lie in [0, bound).
+     */
+    enum Distribution {
+        UNIFORM,        // Independent uniform values, like HelperClass.generateRandomArray
+        SORTED,         // Ascending
+        REVERSED,       // Descending
+        NEARLY_SORTED,  // Ascending with a few random values dropped in
+        FEW_UNIQUE,     // A handful of distinct values
+        SAWTOOTH,       // Several ascending runs one after another
+        ORGAN_PIPE,     // Ascending to the middle, then descending
+        ZIPFIAN         // Small values far more common than large ones, roughly P(k) ~ 1 / (k + 1)
+    }
+
+    /**
+     * Generate an array on the common pool
+     *
+     * @param distribution The shape of the data
+     * @param size The size of the array
+     * @param bound The upper bound for the values
+     * @param seed The seed - the same seed always gives the same array
+     * @return The generated array
+     */
+    static int[] generate(Distribution distribution, int size, int bound, long seed) {
+        return generate(distribution, size, bound, seed, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Generate an array, filling its chunks in parallel on the given pool
+     *
+     * @param distribution The shape of the data
+     * @param size The size of the array
+     * @param bound The upper bound for the values
+     * @param seed The seed - the same seed always gives the same array
+     * @param pool The pool to fill the chunks on
+     * @return The generated array
+     */
+    static int[] generate(Distribution distribution, int size, int bound, long seed, ForkJoinPool pool) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive: " + bound);
+        }
+        int[] array = new int[size];
+        int chunks = Math.max(1, (size + CHUNK - 1) / CHUNK);
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom[] randoms = new SplittableRandom[chunks];
+        for (int c = 0; c < chunks; c++) {
+            randoms[c] = root.split();
+        }
+        ChunkAction.forEach(pool, chunks, c -> {
+            int from = c * CHUNK;
+            int to = Math.min(size, from + CHUNK);
+            fill(distribution, array, from, to, bound, randoms[c]);
+        });
+        return array;
+    }
+
+    /**
+     * Fill array[from..to) with the values of a distribution
+     */
+    private static void fill(Distribution distribution, int[] array, int from, int to, int bound, SplittableRandom rand) {
+        int size = array.length;
+        switch (distribution) {
+            case UNIFORM:
+                for (int i = from; i < to; i++) {
+                    array[i] = rand.nextInt(bound);
+                }
+                break;
+            case SORTED:
+                for (int i = from; i < to; i++) {
+                    array[i] = scale(i, size, bound);
+                }
+                break;
+            case REVERSED:
+                for (int i = from; i < to; i++) {
+                    array[i] = bound - 1 - scale(i, size, bound);
+                }
+                break;
+            case NEARLY_SORTED:
+                for (int i = from; i < to; i++) {
+                    array[i] = (rand.nextInt(100) < NEARLY_SORTED_PERCENT) ? rand.nextInt(bound) : scale(i, size, bound);
+                }
+                break;
+            case FEW_UNIQUE:
+                for (int i = from; i < to; i++) {
+                    array[i] = scale(rand.nextInt(FEW_UNIQUE_VALUES), FEW_UNIQUE_VALUES, bound);
+                }
+                break;
+            case SAWTOOTH:
+                int period = Math.max(1, size / SAWTOOTH_TEETH);
+                for (int i = from; i < to; i++) {
+                    array[i] = scale(i % period, period, bound);
+                }
+                break;
+            case ORGAN_PIPE:
+                int half = Math.max(1, (size + 1) / 2);
+                for (int i = from; i < to; i++) {
+                    array[i] = scale(Math.min(i, size - 1 - i), half, bound);
+                }
+                break;
+            case ZIPFIAN:
+                // Inverse of the continuous approximation to the Zipf CDF with exponent 1:
+                // rank = (bound + 1)^u lands on rank k with probability ln((k + 1) / k)
+                double logRanks = Math.log(bound + 1.0);
+                for (int i = from; i < to; i++) {
+                    int rank = (int) Math.exp(rand.nextDouble() * logRanks);
+                    array[i] = Math.min(Math.max(rank - 1, 0), bound - 1);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Map position i of n onto [0, bound) keeping the order
+     */
+    private static int scale(long i, long n, int bound) {
+        return (int) (i * bound / Math.max(n, 1));
+    }
+}
+
+/**
+ * The natural Merge Sort behind dSort. Instead of splitting the array in halves regardless of its
+ * contents, it walks the array once and takes the runs that are already in order as they come. Runs that
+ * are strictly descending are reversed, and runs shorter than MIN_RUN are extended with an insertion sort,
+ * so a random array is made of runs of MIN_RUN elements and a sorted one is a single run.
+ *
+ * Every run found is pushed on a stack of (start, length) pairs, and neighbouring runs are merged until
+ * each run on the stack is longer than the one above it, and longer than the two above it together.
+ * Run lengths then grow at least as fast as the Fibonacci numbers from the top of the stack down, so the
+ * stack stays a few dozen runs deep and every merge is between runs of comparable length.
+ *
+ * A merge skips the elements that are already in place at both ends, then copies only the shorter of the
+ * two runs to the buffer and merges into the gap that leaves - forwards when the first run is the shorter,
+ * backwards otherwise - so the buffer never needs more than half the range. When one run has supplied
+ * GALLOP_AFTER elements in a row, the merge looks ahead with doubling steps and a binary search for how
+ * many more it can copy as one block.
+ */
+class NaturalMergeSort {
+
+    static final int MIN_RUN = 32;      // Shorter runs are extended to this length with an insertion sort
+    static final int GALLOP_AFTER = 8;  // Elements in a row from one run before a merge copies in blocks
+
+    private final int[] a;
+    private final int[] work;           // The buffer, free from workBase on
+    private final int workBase;
+    private int[] runStart = new int[40];
+    private int[] runLength = new int[40];
+    private int runs;                   // Runs on the stack - the top one is runs - 1
+    private long comparisons;
+    private long moves;
+
+    private NaturalMergeSort(int[] a, int[] work, int workBase) {
+        this.a = a;
+        this.work = work;
+        this.workBase = workBase;
+    }
+
+    /**
+     * Sort a[lo..hi) stably
+     *
+     * @param a The array to sort
+     * @param lo The first index to sort
+     * @param hi One past the last index to sort
+     * @param work Working storage with at least (hi - lo) / 2 free elements from workBase
+     * @param workBase Where the free part of work starts
+     * @param metrics Where the sort reports its work
+     */
+    static void sort(int[] a, int lo, int hi, int[] work, int workBase, SortMetrics metrics) {
+        if (hi - lo < 2) {
+            return;
+        }
+        NaturalMergeSort sorter = new NaturalMergeSort(a, work, workBase);
+        for (int start = lo; start < hi; ) {
+            int end = sorter.runEnd(start, hi);
+            sorter.push(start, end - start);
+            sorter.mergeWhileUnbalanced();
+            start = end;
+        }
+        while (sorter.runs > 1) {  // The invariants hold, so the top run is the shortest - fold it in
+            sorter.mergeAt(sorter.runs - 2);
+        }
+        metrics.comparisons(sorter.comparisons);
+        metrics.moves(sorter.moves);
+    }
+
+    /**
+     * Find the run that starts at start, reversing it if it is strictly descending and extending it to
+     * MIN_RUN elements if it is shorter
+     *
+     * @return Where the run ends
+     */
+    private int runEnd(int start, int hi) {
+        int end = start + 1;
+        if (end < hi) {
+            comparisons++;
+            if (a[end] < a[start]) {  // Only strictly descending, so equal elements never swap places
+                end++;
+                while (end < hi && a[end] < a[end - 1]) {
+                    comparisons++;
+                    end++;
+                }
+                for (int i = start, j = end - 1; i < j; i++, j--) {
+                    HelperClass.swap(a, i, j);
+                }
+                moves += end - start;
+            } else {
+                end++;
+                while (end < hi && a[end] >= a[end - 1]) {
+                    comparisons++;
+                    end++;
+                }
+            }
+            if (end < hi) {
+                comparisons++;  // The comparison that ended the run
+            }
+        }
+        int minEnd = (int) Math.min((long) start + MIN_RUN, hi);
+        if (end < minEnd) {
+            insertionSort(start, end, minEnd);
+            end = minEnd;
+        }
+        return end;
+    }
+
+    /**
+     * Insertion sort a[from..to) where a[from..sorted) is already in order
+     */
+    private void insertionSort(int from, int sorted, int to) {
+        for (int i = sorted; i < to; i++) {
+            int value = a[i];
+            int j = i;
+            while (j > from) {
+                comparisons++;
+                if (a[j - 1] <= value) {  // Stop after equal elements so the sort stays stable
+                    break;
+                }
+                a[j] = a[j - 1];
+                j--;
+            }
+            a[j] = value;
+            moves += i - j + 1;
+        }
+    }
+
+    private void push(int start, int length) {
+        if (runs == runStart.length) {
+            runStart = Arrays.copyOf(runStart, 2 * runs);
+            runLength = Arrays.copyOf(runLength, 2 * runs);
+        }
+        runStart[runs] = start;
+        runLength[runs] = length;
+        runs++;
+    }
+
+    /**
+     * Merge runs near the top of the stack until, for every run i, runLength[i - 1] > runLength[i] and
+     * runLength[i - 2] > runLength[i - 1] + runLength[i]. Only the top runs can break this after a push
+     * or a merge, but a merge one below the top also changes the sum the run under it is compared with,
+     * so the check reaches one run deeper than the top three.
+     */
+    private void mergeWhileUnbalanced() {
+        while (runs > 1) {
+            int top = runs - 1;
+            boolean topThree = top >= 2 && runLength[top - 2] <= runLength[top - 1] + runLength[top];
+            boolean belowTop = top >= 3 && runLength[top - 3] <= runLength[top - 2] + runLength[top - 1];
+            if (topThree || belowTop) {
+                // The run under the top is too long for what lies beneath it - merge it with its shorter neighbour
+                mergeAt(runLength[top - 2] < runLength[top] ? top - 2 : top - 1);
+            } else if (runLength[top - 1] <= runLength[top]) {
+                mergeAt(top - 1);
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Merge run i with run i + 1 above it and close the gap in the stack
+     */
+    private void mergeAt(int i) {
+        int start = runStart[i];
+        int middle = start + runLength[i];
+        int end = middle + runLength[i + 1];
+        runLength[i] = end - start;
+        for (int r = i + 1; r < runs - 1; r++) {
+            runStart[r] = runStart[r + 1];
+            runLength[r] = runLength[r + 1];
+        }
+        runs--;
+
+        // The start of the first run that is not above the second run's first element is already in place,
+        // and so is the end of the second run that is not below the first run's last element
+        int from = blockEnd(a, start, middle, a[middle], true);
+        if (from == middle) {
+            return;  // Already in order
+        }
+        int to = blockEnd(a, middle, end, a[middle - 1], false);
+        if (middle - from <= to - middle) {
+            mergeForwards(from, middle, to);
+        } else {
+            mergeBackwards(from, middle, to);
+        }
+    }
+
+    /**
+     * Merge a[from..middle) and a[middle..to) when the first is the shorter: the first is copied to the
+     * buffer and the merge fills a from the front
+     */
+    private void mergeForwards(int from, int middle, int to) {
+        int leftLength = middle - from;
+        System.arraycopy(a, from, work, workBase, leftLength);
+        moves += leftLength + (to - from);
+
+        int left = workBase;
+        int leftEnd = workBase + leftLength;
+        int right = middle;
+        int out = from;
+        int leftStreak = 0;   // Elements in a row taken from each run
+        int rightStreak = 0;
+        while (left < leftEnd && right < to) {
+            comparisons++;
+            if (a[right] < work[left]) {  // Ties go to the first run so the merge is stable
+                a[out++] = a[right++];
+                leftStreak = 0;
+                if (++rightStreak >= GALLOP_AFTER && right < to) {
+                    int blockEnd = blockEnd(a, right, to, work[left], false);
+                    System.arraycopy(a, right, a, out, blockEnd - right);
+                    out += blockEnd - right;
+                    right = blockEnd;
+                    rightStreak = 0;
+                }
+            } else {
+                a[out++] = work[left++];
+                rightStreak = 0;
+                if (++leftStreak >= GALLOP_AFTER && left < leftEnd) {
+                    int blockEnd = blockEnd(work, left, leftEnd, a[right], true);
+                    System.arraycopy(work, left, a, out, blockEnd - left);
+                    out += blockEnd - left;
+                    left = blockEnd;
+                    leftStreak = 0;
+                }
+            }
+        }
+        // Whatever is left of the second run is already where it belongs
+        System.arraycopy(work, left, a, out, leftEnd - left);
+    }
+
+    /**
+     * Merge a[from..middle) and a[middle..to) when the second is the shorter: the second is copied to the
+     * buffer and the merge fills a from the back
+     */
+    private void mergeBackwards(int from, int middle, int to) {
+        int rightLength = to - middle;
+        System.arraycopy(a, middle, work, workBase, rightLength);
+        moves += rightLength + (to - from);
+
+        int left = middle;           // One past the next element of the first run
+        int right = workBase + rightLength;
+        int out = to;
+        int leftStreak = 0;
+        int rightStreak = 0;
+        while (left > from && right > workBase) {
+            comparisons++;
+            if (a[left - 1] > work[right - 1]) {  // Ties go to the second run, which fills the back first
+                a[--out] = a[--left];
+                rightStreak = 0;
+                if (++leftStreak >= GALLOP_AFTER && left > from) {
+                    int blockStart = blockStart(a, from, left, work[right - 1], false);
+                    out -= left - blockStart;
+                    System.arraycopy(a, blockStart, a, out, left - blockStart);
+                    left = blockStart;
+                    leftStreak = 0;
+                }
+            } else {
+                a[--out] = work[--right];
+                leftStreak = 0;
+                if (++rightStreak >= GALLOP_AFTER && right > workBase) {
+                    int blockStart = blockStart(work, workBase, right, a[left - 1], true);
+                    out -= right - blockStart;
+                    System.arraycopy(work, blockStart, a, out, right - blockStart);
+                    right = blockStart;
+                    rightStreak = 0;
+                }
+            }
+        }
+        // Whatever is left of the first run is already where it belongs
+        System.arraycopy(work, workBase, a, from, right - workBase);
+    }
+
+    /**
+     * Find where the block of source[from..to) that goes before key ends - the elements less than key,
+     * or less than or equal to it when orEqual is set. The first element past the block is searched for
+     * with steps of 1, 2, 4... and then a binary search between the last two steps.
+     *
+     * @return The first index in [from, to) whose element does not go before key, or to
+     */
+    private int blockEnd(int[] source, int from, int to, int key, boolean orEqual) {
+        int inBlock = from;  // Every element before inBlock goes before key
+        int probe = from;
+        int step = 1;
+        while (probe < to && goesBefore(source[probe], key, orEqual)) {
+            inBlock = probe + 1;
+            probe = (to - inBlock > step) ? inBlock + step : to;
+            step <<= 1;
+        }
+        // The block ends in [inBlock, probe]
+        int low = inBlock;
+        int high = Math.min(probe, to);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (goesBefore(source[mid], key, orEqual)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Find where the block at the end of source[from..to) that goes after key starts - the elements greater
+     * than key, or greater than or equal to it when orEqual is set. Searched like blockEnd, from the back.
+     *
+     * @return The first index of the block, or to if source[to - 1] does not go after key
+     */
+    private int blockStart(int[] source, int from, int to, int key, boolean orEqual) {
+        int inBlock = to;  // Every element from inBlock on goes after key
+        int probe = to - 1;
+        int step = 1;
+        while (probe >= from && !goesBefore(source[probe], key, !orEqual)) {
+            inBlock = probe;
+            probe = (inBlock - from > step) ? inBlock - step : from - 1;
+            step <<= 1;
+        }
+        // The block starts in [probe + 1, inBlock]
+        int low = Math.max(probe + 1, from);
+        int high = inBlock;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (goesBefore(source[mid], key, !orEqual)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private boolean goesBefore(int value, int key, boolean orEqual) {
+        comparisons++;
+        return orEqual ? value <= key : value < key;
+    }
+}
+
+/**
+ * The in-place Merge Sort behind HelperClass.dSortInPlace. Blocks of RUN elements are insertion sorted,
+ * then merged bottom-up in passes of doubling width. A merge whose shorter run fits in the buffer copies
+ * that run out and merges into the space it leaves, in linear time.
+ *
+ * A larger merge is a block merge. Its runs A and B are cut into blocks of about the square root of
+ * their total length - A with a short head block left over at the front, B with a short tail block at
+ * the back. The full blocks are selection sorted by their first element, A before B on ties, with a tag
+ * per block recording where it came from. Walking the blocks from the left, each block that came from a
+ * different run than the one before it is merged with what is left of that one through the buffer;
+ * whatever is left of the block that ran out first is already final. The tail block and then the head
+ * block are merged in through the buffer at the end.
+ *
+ * Every step of a block merge is linear in the length of the merge - the selection sort compares about
+ * (length / block)^2 = length block heads and moves each block once - so the sort is O(N log N) with
+ * O(sqrt N) extra space: the buffer and one tag per block. It is stable.
+ */
+class InPlaceMergeSort {
+
+    static final int RUN = 32;  // Size of the insertion sorted blocks the merging starts from
+
+    private final int[] a;
+    private final int[] buffer;
+    private final int[] tags;   // Which block of which run each full block was, during a block merge
+    private long comparisons;
+    private long moves;
+
+    private InPlaceMergeSort(int[] a, int[] buffer, int[] tags) {
+        this.a = a;
+        this.buffer = buffer;
+        this.tags = tags;
+    }
+
+    /**
+     * The default buffer size for an array of length n - about the square root of n. It is also the
+     * smallest buffer a block merge can work with, since every block has to fit in it.
+     */
+    static int defaultBufferSize(int n) {
+        return (int) Math.ceil(Math.sqrt(n));
+    }
+
+    /**
+     * Sort a[lo..hi) stably
+     *
+     * @param a The array to sort
+     * @param lo The first index to sort
+     * @param hi One past the last index to sort
+     * @param buffer Extra storage the merges use - at least defaultBufferSize(hi - lo) ints
+     * @param metrics Where the sort reports its work
+     */
+    static void sort(int[] a, int lo, int hi, int[] buffer, SortMetrics metrics) {
+        int blocks = defaultBufferSize(hi - lo);  // A block merge never has more full blocks than this
+        if (buffer.length < blocks) {
+            throw new IllegalArgumentException("Buffer of " + buffer.length + " is smaller than " + blocks);
+        }
+        for (int start = lo; start < hi; start += RUN) {
+            HelperClass.insertionSort(a, start, Math.min(start + RUN, hi) - 1, metrics);
+        }
+        int[] tags = new int[blocks];
+        metrics.allocated(4L * tags.length);
+        InPlaceMergeSort sorter = new InPlaceMergeSort(a, buffer, tags);
+        for (int width = RUN; width < hi - lo; width *= 2) {
+            for (int start = lo; start < hi - width; start += 2 * width) {
+                sorter.merge(start, start + width, (int) Math.min((long) start + 2 * width, hi));
+            }
+        }
+        metrics.comparisons(sorter.comparisons);
+        metrics.moves(sorter.moves);
+    }
+
+    /**
+     * Merge the sorted runs a[lo..mid) and a[mid..hi)
+     */
+    private void merge(int lo, int mid, int hi) {
+        if (lo >= mid || mid >= hi) {
+            return;
+        }
+        comparisons++;
+        if (a[mid - 1] <= a[mid]) {  // Already in order
+            return;
+        }
+        // Elements of the first run not greater than the first of the second are already in place,
+        // and so are elements of the second run not less than the last of the first
+        lo = upperBound(lo, mid, a[mid]);
+        hi = lowerBound(mid, hi, a[mid - 1]);
+
+        int len1 = mid - lo;
+        int len2 = hi - mid;
+        if (len1 <= buffer.length && len1 <= len2) {
+            mergeLo(lo, mid, hi);
+        } else if (len2 <= buffer.length) {
+            mergeHi(lo, mid, hi);
+        } else {
+            blockMerge(lo, mid, hi);
+        }
+    }
+
+    /**
+     * Merge a[lo..mid) and a[mid..hi) when neither run fits in the buffer
+     */
+    private void blockMerge(int lo, int mid, int hi) {
+        int block = defaultBufferSize(hi - lo);  // Fits in the buffer, since hi - lo is at most the sorted length
+        int head = (mid - lo) % block;           // The short block at the front of the first run
+        int tail = (hi - mid) % block;           // The short block at the end of the second run
+        int start = lo + head;
+        int firstBlocks = (mid - start) / block;
+        int blocks = firstBlocks + (hi - tail - mid) / block;
+
+        // Selection sort the full blocks by their first element - on ties the first run's blocks go first,
+        // and blocks of the same run keep their order, because the tag is the block's original position
+        for (int i = 0; i < blocks; i++) {
+            tags[i] = i;
+        }
+        for (int i = 0; i < blocks - 1; i++) {
+            int min = i;
+            for (int j = i + 1; j < blocks; j++) {
+                int first = a[start + j * block];
+                int least = a[start + min * block];
+                comparisons++;
+                if (first < least || first == least && tags[j] < tags[min]) {
+                    min = j;
+                }
+            }
+            if (min != i) {
+                swapBlocks(start + i * block, start + min * block, block);
+                int tag = tags[i];
+                tags[i] = tags[min];
+                tags[min] = tag;
+            }
+        }
+
+        // Merge each block with what is left of the blocks before it whenever the two came from different runs
+        int fragmentStart = start;
+        int fragmentEnd = start + block;
+        boolean fragmentFirst = tags[0] < firstBlocks;  // Whether the fragment came from the first run
+        for (int i = 1; i < blocks; i++) {
+            int blockStart = start + i * block;
+            int blockEnd = blockStart + block;
+            boolean blockFirst = tags[i] < firstBlocks;
+            if (blockFirst == fragmentFirst) {
+                // Nothing in a later block can go before the fragment, so it is final
+                fragmentStart = blockStart;
+                fragmentEnd = blockEnd;
+                continue;
+            }
+            int length = fragmentEnd - fragmentStart;
+            System.arraycopy(a, fragmentStart, buffer, 0, length);
+            int f = 0;          // Next element of the fragment, in the buffer
+            int b = blockStart; // Next element of the block
+            int dest = fragmentStart;
+            while (f < length && b < blockEnd) {
+                comparisons++;
+                // On ties the element from the first run goes first so the sort stays stable
+                if (fragmentFirst ? a[b] < buffer[f] : a[b] <= buffer[f]) {
+                    a[dest++] = a[b++];
+                } else {
+                    a[dest++] = buffer[f++];
+                }
+            }
+            moves += length + (dest - fragmentStart);
+            if (f == length) {  // The fragment ran out - what is left of the block is the new fragment
+                fragmentStart = b;
+                fragmentFirst = blockFirst;
+            } else {            // The block ran out - the rest of the fragment goes back behind it
+                System.arraycopy(buffer, f, a, dest, length - f);
+                moves += length - f;
+                fragmentStart = dest;
+            }
+            fragmentEnd = blockEnd;
+        }
+
+        // The short blocks fit in the buffer - the tail goes after its equals, the head before its equals
+        if (tail > 0) {
+            mergeHi(start, hi - tail, hi);
+        }
+        if (head > 0) {
+            mergeLo(lo, start, hi);
+        }
+    }
+
+    /**
+     * Swap the blocks of length elements starting at i and j
+     */
+    private void swapBlocks(int i, int j, int length) {
+        for (int k = 0; k < length; k++) {
+            int temp = a[i + k];
+            a[i + k] = a[j + k];
+            a[j + k] = temp;
+        }
+        moves += 2L * length;
+    }
+
+    /**
+     * Merge from the front through the buffer when the first run is the shorter one
+     */
+    private void mergeLo(int lo, int mid, int hi) {
+        int len1 = mid - lo;
+        System.arraycopy(a, lo, buffer, 0, len1);
+        int i = 0;      // Next element of the first run, in the buffer
+        int j = mid;    // Next element of the second run
+        int dest = lo;
+        while (i < len1 && j < hi) {
+            comparisons++;
+            if (a[j] < buffer[i]) {  // Take from the first run on ties so the sort stays stable
+                a[dest++] = a[j++];
+            } else {
+                a[dest++] = buffer[i++];
+            }
+        }
+        System.arraycopy(buffer, i, a, dest, len1 - i);  // The rest of the second run is already in place
+        moves += len1 + (dest - lo) + (len1 - i);
+    }
+
+    /**
+     * Merge from the back through the buffer when the second run is the shorter one
+     */
+    private void mergeHi(int lo, int mid, int hi) {
+        int len2 = hi - mid;
+        System.arraycopy(a, mid, buffer, 0, len2);
+        int i = mid - 1;    // Next element of the first run
+        int j = len2 - 1;   // Next element of the second run, in the buffer
+        int dest = hi - 1;
+        while (i >= lo && j >= 0) {
+            comparisons++;
+            if (buffer[j] < a[i]) {  // Take from the second run on ties so the sort stays stable
+                a[dest--] = a[i--];
+            } else {
+                a[dest--] = buffer[j--];
+            }
+        }
+        System.arraycopy(buffer, 0, a, lo, j + 1);  // The rest of the first run is already in place
+        moves += len2 + (hi - 1 - dest) + (j + 1);
+    }
+
+    /**
+     * The first index in a[from..to) whose element is not less than value
+     */
+    private int lowerBound(int from, int to, int value) {
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            comparisons++;
+            if (a[mid] < value) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * The first index in a[from..to) whose element is greater than value
+     */
+    private int upperBound(int from, int to, int value) {
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            comparisons++;
+            if (a[mid] <= value) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+}
+
+/**
+ * A streaming top-K operator. It keeps the K largest (or smallest) values offered to it so far in a binary
+ * heap stored in a plain int array, so memory stays at K ints however long the stream runs and each value
+ * costs O(log K) at most - and a single comparison when it cannot make the top K, which is most of them
+ * once the heap is full.
+ *
+ * The heap is a min heap whose root is the smallest value kept, the one the next better value replaces.
+ * For the smallest K, values are stored bitwise inverted: ~x reverses the order of ints exactly, so the
+ * same min heap keeps the smallest values. Not thread safe - use one per stream or merge them with offerAll.
+ */
+class TopK {
+
+    private final int[] heap;
+    private final boolean largest;
+    private int size;
+    private long offered;
+
+    /**
+     * @param k The number of values to keep
+     * @param largest true to keep the largest values, false to keep the smallest
+     */
+    TopK(int k, boolean largest) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+        this.heap = new int[k];
+        this.largest = largest;
+    }
+
+    /**
+     * Offer the next value of the stream
+     *
+     * @param value The value
+     */
+    void offer(int value) {
+        offered++;
+        int key = largest ? value : ~value;
+        if (size < heap.length) {  // Still filling - sift the new value up from the bottom
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heap[parent] <= key) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = key;
+        } else if (key > heap[0]) {  // Better than the worst value kept - replace it
+            siftDown(key);
+        }
+    }
+
+    /**
+     * Offer array[from..to) in order
+     *
+     * @param array The values
+     * @param from The first index to offer
+     * @param to One past the last index to offer
+     */
+    void offerAll(int[] array, int from, int to) {
+        for (int i = from; i < to; i++) {
+            offer(array[i]);
+        }
+    }
+
+    /**
+     * Put key at the root in place of the current root and sift it down to where it belongs
+     */
+    private void siftDown(int key) {
+        int i = 0;
+        int half = size >>> 1;  // Nodes from here on have no children
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && heap[right] < heap[child]) {
+                child = right;
+            }
+            if (key <= heap[child]) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = key;
+    }
+
+    /**
+     * @return The number of values kept, K once at least K values have been offered
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of values offered so far
+     */
+    long offered() {
+        return offered;
+    }
+
+    /**
+     * The boundary of the top K - the K-th largest value seen so far, or the K-th smallest.
+     * For the largest K of a stream of N values, K = N / 100 makes this the running p99.
+     *
+     * @return The worst value kept
+     */
+    int threshold() {
+        if (size == 0) {
+            throw new IllegalStateException("No values offered yet");
+        }
+        return largest ? heap[0] : ~heap[0];
+    }
+
+    /**
+     * @return A new array with the values kept, best first - largest first for the largest K,
+     *         smallest first for the smallest K
+     */
+    int[] toSortedArray() {
+        int[] result = Arrays.copyOf(heap, size);
+        HelperClass.aSort(result, SortMetrics.NOOP);
+        // Sorted ascending the keys run from worst to best, so reverse them, undoing the inversion if any
+        for (int i = 0, j = size - 1; i <= j; i++, j--) {
+            int first = result[i];
+            result[i] = largest ? result[j] : ~result[j];
+            result[j] = largest ? first : ~first;
+        }
+        return result;
+    }
+
+    /**
+     * Forget every value so the operator can be reused
+     */
+    void clear() {
+        size = 0;
+        offered = 0;
+    }
+}
+
+/**
+ * A table of records stored as a struct of arrays: one int key column and any number of int, long and
+ * double payload columns, all of the same length. sort orders the rows by key, stably, without boxing a
+ * single record: the keys are radix sorted together with their row numbers, and the resulting permutation
+ * is then applied to each payload column in turn with one gather pass into a spare column.
+ *
+ * The table owns its columns. Sorting swaps each column with its spare instead of copying the result back,
+ * so read the columns through the getters after a sort rather than through the arrays passed in. The
+ * spares and the sort buffers are allocated on the first sort and reused by every sort after it.
+ */
+class RecordTable {
+
+    /**
+     * How the key and the row number are handed to the radix sort
+     */
+    enum KeyEncoding {
+        KEY_AND_ID,  // The key in a long column and the row number in an int column moved alongside, like sortIndex
+        PACKED       // One long per row, key << 32 | row number, so ties are broken by row number and no id column moves
+    }
+
+    private final int size;
+    private int[] keys;
+    private final List<int[]> intColumns = new ArrayList<>();
+    private final List<long[]> longColumns = new ArrayList<>();
+    private final List<double[]> doubleColumns = new ArrayList<>();
+
+    // Reused across sorts
+    private long[] sortKeys;
+    private long[] keyBuffer;
+    private int[] permutation;
+    private int[] idBuffer;
+    private int[] spareInts;
+    private long[] spareLongs;
+    private double[] spareDoubles;
+
+    /**
+     * @param keys The key column - it sets the number of rows
+     */
+    RecordTable(int[] keys) {
+        this.keys = keys;
+        this.size = keys.length;
+    }
+
+    /**
+     * Add an int payload column
+     *
+     * @param column The column, one value per row
+     * @return The number to pass to intColumn to read the column back
+     */
+    int addColumn(int[] column) {
+        checkLength(column.length);
+        intColumns.add(column);
+        return intColumns.size() - 1;
+    }
+
+    /**
+     * Add a long payload column
+     *
+     * @param column The column, one value per row
+     * @return The number to pass to longColumn to read the column back
+     */
+    int addColumn(long[] column) {
+        checkLength(column.length);
+        longColumns.add(column);
+        return longColumns.size() - 1;
+    }
+
+    /**
+     * Add a double payload column
+     *
+     * @param column The column, one value per row
+     * @return The number to pass to doubleColumn to read the column back
+     */
+    int addColumn(double[] column) {
+        checkLength(column.length);
+        doubleColumns.add(column);
+        return doubleColumns.size() - 1;
+    }
+
+    private void checkLength(int length) {
+        if (length != size) {
+            throw new IllegalArgumentException("Column has " + length + " rows, the table has " + size);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    int[] keys() {
+        return keys;
+    }
+
+    int[] intColumn(int column) {
+        return intColumns.get(column);
+    }
+
+    long[] longColumn(int column) {
+        return longColumns.get(column);
+    }
+
+    double[] doubleColumn(int column) {
+        return doubleColumns.get(column);
+    }
+
+    /**
+     * Sort the rows by key with the PACKED encoding
+     *
+     * @param metrics Where the sort reports its work
+     */
+    void sort(SortMetrics metrics) {
+        sort(KeyEncoding.PACKED, metrics);
+    }
+
+    /**
+     * Sort the rows by key, stably - rows with equal keys keep their order
+     *
+     * @param encoding How the keys and row numbers are handed to the radix sort
+     * @param metrics Where the sort reports its work
+     */
+    void sort(KeyEncoding encoding, SortMetrics metrics) {
+        if (size < 2) {
+            return;
+        }
+        allocateBuffers(encoding, metrics);
+
+        // Sort the keys with their row numbers, then read the permutation and the sorted keys back out
+        int[] sortedKeys = spareInts;
+        if (encoding == KeyEncoding.PACKED) {
+            for (int row = 0; row < size; row++) {
+                sortKeys[row] = ((long) keys[row] << 32) | row;  // Row numbers are never negative, so the OR is safe
+            }
+            LongRadixSort.sort(sortKeys, null, keyBuffer, null, metrics);
+            for (int i = 0; i < size; i++) {
+                long packed = sortKeys[i];
+                permutation[i] = (int) packed;
+                sortedKeys[i] = (int) (packed >> 32);
+            }
+        } else {
+            int min = Integer.MAX_VALUE;
+            for (int key : keys) {
+                min = Math.min(min, key);
+            }
+            for (int row = 0; row < size; row++) {
+                // Offsets from the smallest key, as in sortIndex, leave the top four digits the same for
+                // every key, so the radix sort skips them whatever the signs of the keys
+                sortKeys[row] = (long) keys[row] - min;
+                permutation[row] = row;
+            }
+            LongRadixSort.sort(sortKeys, permutation, keyBuffer, idBuffer, metrics);
+            for (int i = 0; i < size; i++) {
+                sortedKeys[i] = (int) (sortKeys[i] + min);
+            }
+        }
+        spareInts = keys;
+        keys = sortedKeys;
+        metrics.moves(size);
+
+        // Gather every payload column into its spare and swap the two
+        for (int c = 0; c < intColumns.size(); c++) {
+            int[] source = intColumns.get(c);
+            int[] target = spareInts;
+            for (int i = 0; i < size; i++) {
+                target[i] = source[permutation[i]];
+            }
+            intColumns.set(c, target);
+            spareInts = source;
+        }
+        for (int c = 0; c < longColumns.size(); c++) {
+            long[] source = longColumns.get(c);
+            long[] target = spareLongs;
+            for (int i = 0; i < size; i++) {
+                target[i] = source[permutation[i]];
+            }
+            longColumns.set(c, target);
+            spareLongs = source;
+        }
+        for (int c = 0; c < doubleColumns.size(); c++) {
+            double[] source = doubleColumns.get(c);
+            double[] target = spareDoubles;
+            for (int i = 0; i < size; i++) {
+                target[i] = source[permutation[i]];
+            }
+            doubleColumns.set(c, target);
+            spareDoubles = source;
+        }
+        metrics.moves((long) size * (intColumns.size() + longColumns.size() + doubleColumns.size()));
+    }
+
+    /**
+     * Allocate whatever the sort needs that an earlier sort has not already allocated
+     */
+    private void allocateBuffers(KeyEncoding encoding, SortMetrics metrics) {
+        long bytes = 0;
+        if (sortKeys == null) {
+            sortKeys = new long[size];
+            keyBuffer = new long[size];
+            permutation = new int[size];
+            spareInts = new int[size];  // Also the spare for the key column
+            bytes += 8L * 2 * size + 4L * 2 * size;
+        }
+        if (encoding == KeyEncoding.KEY_AND_ID && idBuffer == null) {
+            idBuffer = new int[size];
+            bytes += 4L * size;
+        }
+        if (!longColumns.isEmpty() && spareLongs == null) {
+            spareLongs = new long[size];
+            bytes += 8L * size;
+        }
+        if (!doubleColumns.isEmpty() && spareDoubles == null) {
+            spareDoubles = new double[size];
+            bytes += 8L * size;
+        }
+        metrics.allocated(bytes);
+    }
 }
@@ -0,0 +1,110 @@
+/**
+ * Size-boundary checks for SortedIntIndex in sortcomparison.java
+ *
+ * The Eytzinger layout changes shape at every power of two, so these checks build indexes of every size
+ * around those boundaries and compare each search with a plain scan of the sorted keys. The prefetch
+ * address is also checked at node numbers past 2^27, where 16 * k no longer fits in an int - an index
+ * that large needs gigabytes, so that boundary is checked on prefetchNode directly.
+ *
+ * This file is compiled together with sortcomparison.java and needs nothing else on the classpath:
+ *
+ *   mkdir check && cp sortcomparison.java check/Main.java && cp sortedintindextest.java check/SortedIntIndexTest.java
+ *   javac -d check/classes check/*.java
+ *   java -cp check/classes SortedIntIndexTest
+ */
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This class checks lowerBound, upperBound, contains, rangeCount and the batch searches of SortedIntIndex
+ * against a scan of the sorted keys, and exits with an AssertionError on the first mismatch
+ */
+@SuppressWarnings("auxiliaryclass") // SortedIntIndex lives in Main.java by design
+public class SortedIntIndexTest {
+
+    static final long SEED = 838215;
+
+    public static void main(String[] args) {
+        checkPrefetchNode();
+        Random rand = new Random(SEED);
+        for (int shift = 0; shift <= 12; shift++) {
+            for (int size = (1 << shift) - 2; size <= (1 << shift) + 2; size++) {
+                if (size >= 0) {
+                    checkSize(size, rand);
+                }
+            }
+        }
+        System.out.println("SortedIntIndex size-boundary checks passed");
+    }
+
+    /**
+     * The prefetch node must stay in [0, size] for every node a search can visit, including those
+     * past 2^27 where the old int product went negative
+     */
+    static void checkPrefetchNode() {
+        int[] sizes = {1, 16, 1 << 27, (1 << 27) + 1, Integer.MAX_VALUE - 8};
+        for (int size : sizes) {
+            int[] nodes = {1, size / 16, (size / 16) + 1, 1 << 27, (1 << 27) + 1, size};
+            for (int k : nodes) {
+                if (k < 1 || k > size) {
+                    continue;
+                }
+                int node = SortedIntIndex.prefetchNode(k, size);
+                long expected = Math.min(16L * k, size);
+                check(node == expected, "prefetchNode(" + k + ", " + size + ") = " + node + ", expected " + expected);
+            }
+        }
+    }
+
+    /**
+     * Build an index of the given size with duplicates and compare every search with a scan
+     */
+    static void checkSize(int size, Random rand) {
+        int[] sorted = new int[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = rand.nextInt(Math.max(size, 1)) * 2;  // Even values, so odd queries always miss
+        }
+        Arrays.sort(sorted);
+        SortedIntIndex index = new SortedIntIndex(sorted);
+        check(index.size() == size, "size " + index.size() + ", expected " + size);
+
+        int[] queries = new int[2 * size + 6];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = i - 3;  // Every value, hit or miss, plus both ends
+        }
+        int[] lowerBounds = new int[queries.length];
+        boolean[] contains = new boolean[queries.length];
+        index.lowerBounds(queries, lowerBounds);
+        index.contains(queries, contains);
+
+        for (int i = 0; i < queries.length; i++) {
+            int query = queries[i];
+            int lower = scanLowerBound(sorted, query);
+            int upper = scanLowerBound(sorted, query + 1);
+            String at = " for " + query + " at size " + size;
+            check(index.lowerBound(query) == lower, "lowerBound" + at);
+            check(index.upperBound(query) == upper, "upperBound" + at);
+            check(index.contains(query) == (upper > lower), "contains" + at);
+            check(index.rangeCount(query, query + 4) == scanLowerBound(sorted, query + 5) - lower, "rangeCount" + at);
+            check(lowerBounds[i] == lower, "lowerBounds" + at);
+            check(contains[i] == (upper > lower), "batch contains" + at);
+        }
+        check(index.upperBound(Integer.MAX_VALUE) == size, "upperBound(MAX_VALUE) at size " + size);
+        check(index.lowerBound(Integer.MIN_VALUE) == 0, "lowerBound(MIN_VALUE) at size " + size);
+    }
+
+    private static int scanLowerBound(int[] sorted, int value) {
+        int i = 0;
+        while (i < sorted.length && sorted[i] < value) {
+            i++;
+        }
+        return i;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * Latency histograms from a Flight Recorder recording of the sort and search events in sortevents.java
+ *
+ * It reads the events by name from the recording file and needs none of the other classes:
+ *
+ *   javac -d classes SortEventAnalyzer.java
+ *   java -cp classes SortEventAnalyzer sorts.jfr
+ */
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Turns a .jfr recording into a latency histogram for each sort and search engine. Durations go into
+ * power-of-two buckets from 1 ns, and each engine gets its count, percentiles, mean comparisons and
+ * allocated bytes, and a bar per non-empty bucket.
+ *
+ *   java SortEventAnalyzer sorts.jfr
+ */
+class SortEventAnalyzer {
+
+    static final int BUCKETS = 48;   // Bucket b holds durations in [2^b, 2^(b+1)) ns
+    static final int BAR_WIDTH = 40;
+
+    /**
+     * Everything recorded for one engine
+     */
+    static final class EngineStats {
+        final long[] buckets = new long[BUCKETS];
+        final List<Long> durations = new ArrayList<>();
+        long comparisons;
+        long allocatedBytes;
+        long elements;
+    }
+
+    /**
+     * Read a recording and print the histograms
+     * @param args - the .jfr file to read
+     * @throws IOException if the recording cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: java SortEventAnalyzer recording.jfr");
+            System.exit(2);
+        }
+        Map<String, EngineStats> engines = analyze(Path.of(args[0]));
+        for (Map.Entry<String, EngineStats> entry : engines.entrySet()) {
+            print(entry.getKey(), entry.getValue());
+        }
+        if (engines.isEmpty()) {
+            System.out.println("No sort or search events in " + args[0]);
+        }
+    }
+
+    /**
+     * Collect the sort and search events of a recording by engine
+     *
+     * @param file The recording
+     * @return The statistics of each engine, keyed "Sort aSort", "Search binarySearch" and so on, in name order
+     * @throws IOException if the recording cannot be read
+     */
+    static Map<String, EngineStats> analyze(Path file) throws IOException {
+        Map<String, EngineStats> engines = new TreeMap<>();
+        try (RecordingFile recording = new RecordingFile(file)) {
+            while (recording.hasMoreEvents()) {
+                RecordedEvent event = recording.readEvent();
+                String type = event.getEventType().getName();
+                String kind;
+                if (type.equals("sortcomparison.Sort")) {
+                    kind = "Sort ";
+                } else if (type.equals("sortcomparison.Search")) {
+                    kind = "Search ";
+                } else {
+                    continue;
+                }
+                EngineStats stats = engines.computeIfAbsent(kind + event.getString("engine"), k -> new EngineStats());
+                long nanos = Math.max(event.getDuration().toNanos(), 1);
+                stats.buckets[Math.min(63 - Long.numberOfLeadingZeros(nanos), BUCKETS - 1)]++;
+                stats.durations.add(nanos);
+                stats.comparisons += event.getLong("comparisons");
+                stats.elements += event.getInt("size");
+                if (event.hasField("allocatedBytes")) {
+                    stats.allocatedBytes += event.getLong("allocatedBytes");
+                }
+            }
+        }
+        return engines;
+    }
+
+    private static void print(String engine, EngineStats stats) {
+        long[] sorted = stats.durations.stream().mapToLong(Long::longValue).sorted().toArray();
+        int count = sorted.length;
+        System.out.printf("%s: %d events, mean size %.0f, mean comparisons %.0f", engine, count,
+                (double) stats.elements / count, (double) stats.comparisons / count);
+        System.out.printf(engine.startsWith("Sort") ? ", mean allocated %.0f bytes%n" : "%n",
+                (double) stats.allocatedBytes / count);
+        System.out.printf("  p50 %d ns  p90 %d ns  p99 %d ns  max %d ns%n", percentile(sorted, 0.50),
+                percentile(sorted, 0.90), percentile(sorted, 0.99), sorted[count - 1]);
+        long largest = Arrays.stream(stats.buckets).max().orElse(1);
+        for (int b = 0; b < BUCKETS; b++) {
+            if (stats.buckets[b] != 0) {
+                int bar = (int) Math.max(1, stats.buckets[b] * BAR_WIDTH / largest);
+                System.out.printf("  %12d ns | %-" + BAR_WIDTH + "s %d%n", 1L << b, "#".repeat(bar), stats.buckets[b]);
+            }
+        }
+    }
+
+    /**
+     * The nearest-rank percentile of sorted values
+     */
+    static long percentile(long[] sorted, double fraction) {
+        return sorted[Math.max((int) Math.ceil(fraction * sorted.length) - 1, 0)];
+    }
+}
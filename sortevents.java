@@ -0,0 +1,186 @@
+/**
+ * Flight Recorder events for the sort and search entry points in sortcomparison.java
+ *
+ * SortEvent records one run of a HelperClass sort - engine, size, comparisons, swaps, moves and allocated
+ * bytes - and SearchEvent one int search. SortTracing in sortcomparison.java finds these classes at run
+ * time, so sortcomparison.java compiles and runs on its own without this file or jdk.jfr, emitting nothing.
+ * Compile this file against its classes and record as usual:
+ *
+ *   javac -d classes Main.java
+ *   javac -cp classes -d classes SortEvent.java
+ *   java -XX:StartFlightRecording=filename=sorts.jfr -cp classes Main
+ *
+ * sorteventanalyzer.java turns the recording into latency histograms.
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event for one run of a HelperClass sort. While recording, the sort reports its work to
+ * a SortTracing.RecordedSort, which counts it and passes it on to the caller's SortMetrics unchanged, and
+ * the totals are written into the event when it is committed.
+ */
+@Name("sortcomparison.Sort")
+@Label("Sort")
+@Category("Sorting")
+@Description("One run of a HelperClass sort engine")
+class SortEvent extends Event {
+
+    @Label("Engine")
+    String engine;
+
+    @Label("Size")
+    @Description("Number of elements sorted")
+    int size;
+
+    @Label("Comparisons")
+    long comparisons;
+
+    @Label("Swaps")
+    long swaps;
+
+    @Label("Moves")
+    long moves;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocatedBytes;
+
+    /**
+     * Start an event for a sort, if sort events are enabled in the running recordings
+     *
+     * @param engine The name of the sort
+     * @param size The number of elements to sort
+     * @return The started event, or null when the event is disabled
+     */
+    static SortEvent begin(String engine, int size) {
+        SortEvent event = new SortEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.engine = engine;
+        event.size = size;
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Record the event, if it passes the recording's threshold
+     *
+     * @param event The event from begin
+     * @param comparisons The comparisons the sort reported
+     * @param swaps The swaps the sort reported
+     * @param moves The moves the sort reported
+     * @param allocatedBytes The bytes the sort reported allocating
+     */
+    static void commit(SortEvent event, long comparisons, long swaps, long moves, long allocatedBytes) {
+        event.comparisons = comparisons;
+        event.swaps = swaps;
+        event.moves = moves;
+        event.allocatedBytes = allocatedBytes;
+        event.commit();
+    }
+}
+
+/**
+ * A Flight Recorder event for one HelperClass search. Searches allocate nothing, so unlike SortEvent it has
+ * no allocation field. Stack traces are off because searches are far more frequent than sorts.
+ */
+@Name("sortcomparison.Search")
+@Label("Search")
+@Category("Sorting")
+@Description("One HelperClass search")
+@StackTrace(false)
+class SearchEvent extends Event {
+
+    @Label("Engine")
+    String engine;
+
+    @Label("Size")
+    @Description("Number of elements searched")
+    int size;
+
+    @Label("Comparisons")
+    @Description("Elements compared with the value searched for")
+    long comparisons;
+
+    @Label("Found")
+    boolean found;
+
+    /**
+     * Start an event for a search, if search events are enabled in the running recordings
+     *
+     * @param engine The name of the search
+     * @param size The number of elements to search
+     * @return The started event, or null when the event is disabled
+     */
+    static SearchEvent begin(String engine, int size) {
+        SearchEvent event = new SearchEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.engine = engine;
+        event.size = size;
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Record the event, if it passes the recording's threshold
+     *
+     * @param event The event from begin
+     * @param comparisons The elements compared
+     * @param position Where the value was found, or -1
+     */
+    static void commit(SearchEvent event, long comparisons, int position) {
+        event.comparisons = comparisons;
+        event.found = position >= 0;
+        event.commit();
+    }
+}
+
+/**
+ * Keeps SortTracing.recording up to date with whether any Flight Recorder recording is running, so a
+ * disabled sort or search event costs one read of a field. Checking an event itself means creating it
+ * first, and on the paths where the event is used the JIT cannot remove that allocation. SortTracing loads
+ * this class, which registers the listener and does not start Flight Recorder by itself.
+ */
+@SuppressWarnings("auxiliaryclass") // SortTracing lives in Main.java by design
+class FlightRecording {
+
+    static {
+        try {
+            FlightRecorder.addListener(new FlightRecorderListener() {
+                @Override
+                public void recorderInitialized(FlightRecorder recorder) {
+                    update(recorder);
+                }
+
+                @Override
+                public void recordingStateChanged(Recording recording) {
+                    update(FlightRecorder.getFlightRecorder());
+                }
+            });
+        } catch (RuntimeException | Error e) {
+            // Flight Recorder is not available in this JVM - the events stay off
+        }
+    }
+
+    private static void update(FlightRecorder recorder) {
+        boolean running = false;
+        for (Recording recording : recorder.getRecordings()) {
+            running |= recording.getState() == RecordingState.RUNNING;
+        }
+        SortTracing.recording = running;
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * Vector API versions of the scanning loops in sortcomparison.java
+ *
+ * HelperClass.linearSearch and the min/max and histogram scans look at one element per iteration.
+ * These kernels compare a whole vector of lanes per instruction - 8 ints with AVX2, 16 with AVX-512.
+ * When the platform has no useful vector width they run the plain scalar loops instead.
+ *
+ * jdk.incubator.vector is an incubator module, so this file is compiled and run together with
+ * sortcomparison.java with the module added:
+ *
+ *   javac --add-modules jdk.incubator.vector -d classes Main.java VectorKernels.java
+ *   java --add-modules jdk.incubator.vector -cp classes Main
+ *
+ * ScanKernels in sortcomparison.java finds this class at run time when the module is present, and then
+ * HelperClass.linearSearch and the RadixSort digit passes run on these kernels. sortcomparison.java
+ * compiles and runs on its own without this file or the module, using its scalar loops.
+ */
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * This class contains the vectorized scan kernels. Each one finishes the elements after the last whole
+ * vector with a scalar loop, and runs only that loop when the platform has no useful vector width
+ */
+class VectorKernels {
+
+    static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    // With fewer than 4 lanes the vector loop costs more than it saves, so use the scalar loops
+    static final boolean ENABLED = SPECIES.length() >= 4;
+
+    /**
+     * Find the first index of a value in an int array, a vector of elements at a time
+     *
+     * @param array The array to search.
+     * @param value The value to search for.
+     * @return The index of the value in the array, or -1 if the value is not found
+     */
+    static int linearSearch(int[] array, int value) {
+        int i = 0;
+        if (ENABLED) {
+            int upperBound = SPECIES.loopBound(array.length);
+            for (; i < upperBound; i += SPECIES.length()) {
+                VectorMask<Integer> found = IntVector.fromArray(SPECIES, array, i).eq(value);
+                if (found.anyTrue()) {
+                    return i + found.firstTrue();
+                }
+            }
+        }
+        for (; i < array.length; i++) {  // The elements after the last whole vector
+            if (array[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the smallest and largest value in an int array, keeping a running min and max per lane
+     *
+     * @param array The array to scan
+     * @return The minimum and maximum packed as (min << 32) | (max & 0xFFFFFFFF), like HelperClass.minMax
+     */
+    static long minMax(int[] array) {
+        int minValue = Integer.MAX_VALUE;
+        int maxValue = Integer.MIN_VALUE;
+        int i = 0;
+        int upperBound = SPECIES.loopBound(array.length);
+        if (ENABLED && upperBound > 0) {
+            IntVector min = IntVector.fromArray(SPECIES, array, 0);
+            IntVector max = min;
+            for (i = SPECIES.length(); i < upperBound; i += SPECIES.length()) {
+                IntVector values = IntVector.fromArray(SPECIES, array, i);
+                min = min.min(values);
+                max = max.max(values);
+            }
+            minValue = min.reduceLanes(VectorOperators.MIN);
+            maxValue = max.reduceLanes(VectorOperators.MAX);
+        }
+        for (; i < array.length; i++) {
+            minValue = Math.min(minValue, array[i]);
+            maxValue = Math.max(maxValue, array[i]);
+        }
+        return ((long) minValue << 32) | (maxValue & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Count how many values fall in [low, high], a vector of comparisons at a time
+     *
+     * @param array The array to scan
+     * @param low The smallest value to count
+     * @param high The largest value to count
+     * @return The number of values between low and high inclusive
+     */
+    static int countInRange(int[] array, int low, int high) {
+        int count = 0;
+        int i = 0;
+        if (ENABLED) {
+            int upperBound = SPECIES.loopBound(array.length);
+            for (; i < upperBound; i += SPECIES.length()) {
+                IntVector values = IntVector.fromArray(SPECIES, array, i);
+                count += values.compare(VectorOperators.GE, low)
+                        .and(values.compare(VectorOperators.LE, high))
+                        .trueCount();
+            }
+        }
+        for (; i < array.length; i++) {
+            count += (array[i] >= low && array[i] <= high) ? 1 : 0;
+        }
+        return count;
+    }
+
+    /**
+     * Add up the histogram of one 8-bit digit of array[from..to), with the sign bit flipped like RadixSort.
+     * The digits are extracted a vector at a time. The counting itself cannot be vectorized, so it is
+     * spread over four sub-histograms, which stops consecutive equal digits from waiting on each other's
+     * increment.
+     *
+     * @param array The values to count
+     * @param from The first index to count
+     * @param to One past the last index to count
+     * @param shift The bit position of the digit - 0, 8, 16 or 24
+     * @param counts The counts to add to
+     * @param offset Where the 256 counts of this digit start in counts
+     */
+    static void digitHistogram(int[] array, int from, int to, int shift, int[] counts, int offset) {
+        int[][] partial = new int[4][256];
+        int i = from;
+        if (ENABLED) {
+            int[] digits = new int[SPECIES.length()];
+            int upperBound = from + SPECIES.loopBound(to - from);
+            for (; i < upperBound; i += SPECIES.length()) {
+                IntVector.fromArray(SPECIES, array, i)
+                        .lanewise(VectorOperators.XOR, Integer.MIN_VALUE)
+                        .lanewise(VectorOperators.LSHR, shift)
+                        .lanewise(VectorOperators.AND, 0xFF)
+                        .intoArray(digits, 0);
+                for (int lane = 0; lane < digits.length; lane++) {
+                    partial[lane & 3][digits[lane]]++;
+                }
+            }
+        }
+        for (; i < to; i++) {
+            partial[i & 3][((array[i] ^ Integer.MIN_VALUE) >>> shift) & 0xFF]++;
+        }
+        for (int bucket = 0; bucket < 256; bucket++) {
+            counts[offset + bucket] += partial[0][bucket] + partial[1][bucket] + partial[2][bucket] + partial[3][bucket];
+        }
+    }
+}